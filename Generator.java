@@ -23,22 +23,25 @@ public class Generator {
                         "CommaSeperated: List<Expression> expressions",
                         "Variable: Token name",
                         "Logical: Expression left, Token op, Expression right",
-                        "Call: Expression callee, Token paren, List<Expression> arguments",
-                        "FunctionExpr: Token name, List<Token> params, List<Statement> stmts"));
+                        "Call: Expression callee, Token paren, List<Expression> arguments | Object intrinsic",
+                        "ArrayLiteral: Token bracket, List<Expression> elements",
+                        "Index: Expression array, Token bracket, Expression index",
+                        "IndexSet: Expression array, Token bracket, Expression index, Expression value",
+                        "FunctionExpr: Token name, List<Token> params, List<Statement> stmts | int slots, int frameSize, int[] upvalues"));
         defineAst(outputDir, 
         "package com.craftinginterpreters.jlox.syntax", 
         "Statement", Arrays.asList(
-                "Block: List<Statement> stmts",
+                "Block: List<Statement> stmts | int slots, boolean captured, int offset",
                 "Expr: Expression expr",
                 "Print: Expression expr",
                 "Var: Token name, Expression initializer",
                 "IfElse: Expression condition, Statement thenBranch, Statement elseBranch",
-                "While: Expression codition, Statement body",
-                "For: Statement initializer, Expression condition, Statement body, Expression change",
-                "Function: Token name, List<Token> params, List<Statement> stmts",
+                "While: Token keyword, Expression codition, Statement body",
+                "For: Token keyword, Statement initializer, Expression condition, Statement body, Expression change",
+                "Function: Token name, List<Token> params, List<Statement> stmts | int slots, int frameSize, int[] upvalues",
                 "Break: ",
                 "Continue: ",
-                "Return: Token keyword, Expression expr"));
+                "Return: Token keyword, Expression expr, boolean tailCall"));
     }
 
     private static void defineAst(
@@ -86,7 +89,11 @@ public class Generator {
         writer.println("\t}");
     }
 
-    private static void defineType(PrintWriter writer, String baseClass, String className, String fields) {
+    // fields after a '|' are not passed to the constructor; the Resolver and the
+    // Interpreter's FrameLayout fill them in
+    private static void defineType(PrintWriter writer, String baseClass, String className, String description) {
+        String fields = description.split("\\|")[0].trim();
+        String annotations = description.contains("|") ? description.split("\\|")[1].trim() : "";
         writer.println();
 
         // class
@@ -126,6 +133,14 @@ public class Generator {
             writer.println(String.format("\t\tpublic final %s %s;", type, name));
         }
 
+        for (String field : annotations.split(",")) {
+            if (field.isBlank()) {
+                continue;
+            }
+            String[] fieldDescription = field.trim().split(" ");
+            writer.println(String.format("\t\tpublic %s %s;", fieldDescription[0].trim(), fieldDescription[1].trim()));
+        }
+
         writer.println("\t}");
         // class ends
     }
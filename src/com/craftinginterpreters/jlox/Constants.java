@@ -7,4 +7,10 @@ public class Constants {
     public static char SPACE_CHAR = ' ';
 
     public static int MAX_FUNCTION_PARAMS = 256;
+    public static int JIT_THRESHOLD = 1000;
+    public static int INLINE_BUDGET = 24;
+    public static int PROFILE_INTERVAL_MILLIS = 1;
+    public static int PROFILE_TOP = 20;
+    public static int MEMO_CAPACITY = 1024;
+    public static int ROPE_MIN_LENGTH = 256;
 }
@@ -3,41 +3,165 @@ package com.craftinginterpreters.jlox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.LongAdder;
 import com.craftinginterpreters.jlox.scanner.Scanner;
 import com.craftinginterpreters.jlox.syntax.Statement;
 import com.craftinginterpreters.jlox.syntax.Token;
+import com.craftinginterpreters.jlox.closure.ClosureEngine;
+import com.craftinginterpreters.jlox.interpreter.Engine;
 import com.craftinginterpreters.jlox.interpreter.Interpreter;
+import com.craftinginterpreters.jlox.interpreter.Profiler;
+import com.craftinginterpreters.jlox.interpreter.TraceListener;
+import com.craftinginterpreters.jlox.optimizer.Optimizer;
 import com.craftinginterpreters.jlox.parser.Parser;
 import com.craftinginterpreters.jlox.parser.Resolver;
 import com.craftinginterpreters.jlox.tools.ErrorHandler;
+import com.craftinginterpreters.jlox.vm.VM;
 import com.craftinginterpreters.jlox.tools.Logger;
+import com.craftinginterpreters.jlox.tools.Metrics;
 import com.craftinginterpreters.jlox.tools.Logger.Level;
 
 public class Lox {
-  public static Interpreter interpreter = new Interpreter();
+  public static Engine engine = new Interpreter();
+  private static boolean stats = false;
+  private static boolean optimize = false;
+  private static Profiler profiler = null;
+  private static String profileFile = "profile.folded";
+  private static String metricsFile = null;
+  private static long timeoutMillis = 0;
+  private static boolean memoize = false;
+  private static Timer timer = null;
   
   static {
     Logger.setLogLevel(Level.INFO);
   }
 
   public static void main(String[] args) throws IOException {
-    if (args.length > 1) {
-      System.out.println("Usage: jlox [script]");
-      System.exit(64);
-    } else if (args.length == 1) {
-      runFile(args[0]);
+    String script = null;
+    boolean jit = false;
+    boolean trace = false;
+    long steps = 0;
+    for (String arg : args) {
+      if (arg.equals("--jit")) {
+        jit = true;
+      } else if (arg.equals("--stats")) {
+        stats = true;
+      } else if (arg.equals("--optimize")) {
+        optimize = true;
+      } else if (arg.equals("--debug")) {
+        Logger.setLogLevel(Level.DEBUG);
+      } else if (arg.equals("--trace")) {
+        trace = true;
+        Logger.setLogLevel(Level.TRACE);
+      } else if (arg.equals("--profile") || arg.startsWith("--profile=")) {
+        profiler = new Profiler();
+        if (arg.startsWith("--profile=")) {
+          profileFile = arg.substring("--profile=".length());
+        }
+      } else if (arg.startsWith("--metrics=")) {
+        metricsFile = arg.substring("--metrics=".length());
+      } else if (arg.equals("--memoize")) {
+        memoize = true;
+      } else if (arg.startsWith("--steps=")) {
+        steps = parseLimit(arg.substring("--steps=".length()));
+      } else if (arg.startsWith("--timeout=")) {
+        timeoutMillis = parseLimit(arg.substring("--timeout=".length()));
+      } else if (arg.startsWith("--engine=")) {
+        engine = createEngine(arg.substring("--engine=".length()));
+      } else if (arg.startsWith("--") || script != null) {
+        usage();
+      } else {
+        script = arg;
+      }
+    }
+    if (jit) {
+      treeEngine("--jit").enableJit();
+    }
+    if (profiler != null) {
+      treeEngine("--profile").enableProfiler(profiler);
+    }
+    if (memoize) {
+      treeEngine("--memoize").enableMemoization();
+    }
+    if (steps > 0) {
+      treeEngine("--steps").setStepLimit(steps);
+    }
+    if (timeoutMillis > 0) {
+      treeEngine("--timeout");
+    }
+    if (trace) {
+      treeEngine("--trace").addListener(new TraceListener());
+    }
+    Metrics.register();
+    if (script != null) {
+      runFile(script);
     } else {
       runPrompt();
     }
   }
 
+  private static void usage() {
+    System.out.println("Usage: jlox [--engine=tree|closure|vm] [--jit] [--stats] [--optimize] [--debug] [--trace] [--profile[=file]] [--metrics=file] [--memoize] [--steps=n] [--timeout=millis] [script]");
+    System.exit(64);
+  }
+
+  // the tree engine is the only one with a JIT, a profiler, node listeners, memoization and safepoints
+  private static Interpreter treeEngine(String flag) {
+    if (!(engine instanceof Interpreter)) {
+      System.err.println(flag + " is only supported by --engine=tree");
+      System.exit(64);
+    }
+    return (Interpreter) engine;
+  }
+
+  private static long parseLimit(String value) {
+    try {
+      long limit = Long.parseLong(value);
+      if (limit > 0) {
+        return limit;
+      }
+    } catch (NumberFormatException e) {
+    }
+    usage();
+    return 0;
+  }
+
+  private static Engine createEngine(String name) {
+    switch (name) {
+      case "tree":
+        return new Interpreter();
+      case "closure":
+        return new ClosureEngine();
+      case "vm":
+        return new VM();
+      default:
+        usage();
+        return null;
+    }
+  }
+
   private static void runFile(String path) throws IOException {
     byte[] bytes = Files.readAllBytes(Paths.get(path));
+    long allocated = allocatedBytes();
     run(new String(bytes, Charset.defaultCharset()));
+    printStats(allocatedBytes() - allocated);
+    if (profiler != null) {
+      writeProfile();
+    }
+    if (metricsFile != null) {
+      writeMetrics();
+    }
+    if (memoize) {
+      ((Interpreter) engine).printMemoization(System.err);
+    }
     // Indicate an error in the exit code.
     if (ErrorHandler.hadError)
       System.exit(65);
@@ -47,6 +171,7 @@ public class Lox {
     InputStreamReader input = new InputStreamReader(System.in);
     BufferedReader reader = new BufferedReader(input);
 
+    long allocated = allocatedBytes();
     for (;;) {
       System.out.print("> ");
       String line = reader.readLine();
@@ -55,11 +180,55 @@ public class Lox {
       run(line);
       ErrorHandler.resetErrors();
     }
+    printStats(allocatedBytes() - allocated);
+    if (profiler != null) {
+      writeProfile();
+    }
+    if (metricsFile != null) {
+      writeMetrics();
+    }
+    if (memoize) {
+      ((Interpreter) engine).printMemoization(System.err);
+    }
+  }
+
+  private static void printStats(long allocated) {
+    if (!stats) {
+      return;
+    }
+    engine.printStats(System.err);
+    System.err.println(String.format("allocated: %d bytes", allocated));
+  }
+
+  private static void writeProfile() {
+    profiler.stop();
+    try (PrintStream out = new PrintStream(profileFile, Charset.defaultCharset())) {
+      profiler.writeCollapsed(out);
+    } catch (IOException e) {
+      Logger.error(String.format("cannot write profile to %s: %s", profileFile, e.getMessage()));
+    }
+    profiler.printTop(System.err, Constants.PROFILE_TOP);
+    System.err.println(String.format("collapsed stacks written to %s", profileFile));
+  }
+
+  private static void writeMetrics() {
+    try (PrintStream out = new PrintStream(metricsFile, Charset.defaultCharset())) {
+      Metrics.dump(out);
+    } catch (IOException e) {
+      Logger.error(String.format("cannot write metrics to %s: %s", metricsFile, e.getMessage()));
+    }
+  }
+
+  // heap allocated by this thread so far, which includes everything a program allocates
+  private static long allocatedBytes() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
   }
 
   private static void run(String source) {
+    long start = System.nanoTime();
     Scanner scanner = new Scanner(source);
     List<Token> tokens = scanner.scanTokens();
+    start = phase(Metrics.scanNanos, start);
 
     if (ErrorHandler.hadError) {
       return;
@@ -67,6 +236,7 @@ public class Lox {
 
     Parser parser = new Parser(tokens);
     List<Statement> statements = parser.parse();
+    start = phase(Metrics.parseNanos, start);
 
     if (ErrorHandler.hadError) {
       return;
@@ -74,11 +244,53 @@ public class Lox {
 
     Resolver resolver = new Resolver();
     resolver.resolve(statements);
+    start = phase(Metrics.resolveNanos, start);
 
     if (ErrorHandler.hadError) {
       return;
     }
 
-    interpreter.interpret(statements);
+    if (optimize) {
+      statements = Optimizer.optimize(statements, scanner.symbols());
+      start = phase(Metrics.optimizeNanos, start);
+    }
+
+    if (profiler != null) {
+      profiler.start();
+    }
+    TimerTask timeout = scheduleTimeout();
+    engine.interpret(statements);
+    if (timeout != null) {
+      timeout.cancel();
+    }
+    phase(Metrics.executeNanos, start);
+  }
+
+  // cancels the program if it is still running after --timeout
+  private static TimerTask scheduleTimeout() {
+    if (timeoutMillis == 0) {
+      return null;
+    }
+    if (timer == null) {
+      timer = new Timer("jlox-timeout", true);
+    }
+    Interpreter interpreter = (Interpreter) engine;
+    // before the timer exists, so neither this run's cancel nor a late one from the last run is lost
+    interpreter.reset();
+    TimerTask task = new TimerTask() {
+      @Override
+      public void run() {
+        interpreter.cancel();
+      }
+    };
+    timer.schedule(task, timeoutMillis);
+    return task;
+  }
+
+  // adds the time since start to the phase, and returns the start of the next one
+  private static long phase(LongAdder nanos, long start) {
+    long now = System.nanoTime();
+    nanos.add(now - start);
+    return now;
   }
 }
\ No newline at end of file
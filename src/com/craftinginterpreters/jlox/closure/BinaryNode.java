@@ -0,0 +1,304 @@
+package com.craftinginterpreters.jlox.closure;
+
+import com.craftinginterpreters.jlox.interpreter.RuntimeError;
+import com.craftinginterpreters.jlox.interpreter.Rope;
+import com.craftinginterpreters.jlox.interpreter.Utils;
+import com.craftinginterpreters.jlox.syntax.Token;
+
+/**
+ * Binary operator specialized to two numbers or two strings. The generic
+ * path keeps every check of the Interpreter's visitBinary.
+ */
+abstract class BinaryNode extends SpecializingNode {
+    final ExprNode left;
+    final ExprNode right;
+
+    BinaryNode(Token op, ExprNode left, ExprNode right) {
+        super(op);
+        this.left = left;
+        this.right = right;
+    }
+
+    @Override
+    public Object evaluate(Frame frame) {
+        if (state == NUMBER) {
+            return evaluateNumbers(frame);
+        }
+        return evaluate(left.evaluate(frame), right.evaluate(frame));
+    }
+
+    // operands are read through the unboxed channel; a miss hands the values to the generic path
+    private Object evaluateNumbers(Frame frame) {
+        double l;
+        try {
+            l = left.evaluateDouble(frame);
+        } catch (UnexpectedTypeException e) {
+            return evaluate(e.value, right.evaluate(frame));
+        }
+        double r;
+        try {
+            r = right.evaluateDouble(frame);
+        } catch (UnexpectedTypeException e) {
+            return evaluate(l, e.value);
+        }
+        return numbers(l, r);
+    }
+
+    final Object evaluate(Object l, Object r) {
+        switch (state) {
+            case NUMBER:
+                if (l instanceof Double && r instanceof Double) {
+                    return numbers((double) l, (double) r);
+                }
+                break;
+            case STRING:
+                if (Utils.isString(l) && Utils.isString(r)) {
+                    return strings(l, r);
+                }
+                break;
+            case GENERIC:
+                return generic(l, r);
+            default:
+                if (l instanceof Double && r instanceof Double) {
+                    rewrite(NUMBER);
+                    return numbers((double) l, (double) r);
+                }
+                if (Utils.isString(l) && Utils.isString(r) && hasStringCase()) {
+                    rewrite(STRING);
+                    return strings(l, r);
+                }
+                break;
+        }
+        rewrite(GENERIC);
+        return generic(l, r);
+    }
+
+    abstract Object numbers(double l, double r);
+
+    abstract Object generic(Object l, Object r);
+
+    boolean hasStringCase() {
+        return false;
+    }
+
+    /** Two strings, either of which may be a Rope, see Utils.isString. */
+    Object strings(Object l, Object r) {
+        return generic(l, r);
+    }
+
+    /** The node for a binary operator, or null if the operator is not known. */
+    static BinaryNode create(Token op, ExprNode left, ExprNode right) {
+        switch (op.type) {
+            case PLUS:
+                return new Arithmetic(op, left, right) {
+                    @Override
+                    double apply(double l, double r) {
+                        return l + r;
+                    }
+
+                    @Override
+                    boolean hasStringCase() {
+                        return true;
+                    }
+
+                    @Override
+                    Object strings(Object l, Object r) {
+                        return Rope.concat(l, r);
+                    }
+
+                    @Override
+                    Object generic(Object l, Object r) {
+                        if (l instanceof Double && r instanceof Double) {
+                            return (double) l + (double) r;
+                        }
+                        if (Utils.isString(l) || Utils.isString(r)) {
+                            return Rope.concat(l, r);
+                        }
+                        throw new RuntimeError(op, "Invalid operand types");
+                    }
+                };
+            case MINUS:
+                return new Arithmetic(op, left, right) {
+                    @Override
+                    double apply(double l, double r) {
+                        return l - r;
+                    }
+                };
+            case STAR:
+                return new Arithmetic(op, left, right) {
+                    @Override
+                    double apply(double l, double r) {
+                        return l * r;
+                    }
+                };
+            case STAR_STAR:
+                return new Arithmetic(op, left, right) {
+                    @Override
+                    double apply(double l, double r) {
+                        return Math.pow(l, r);
+                    }
+                };
+            case SLASH:
+                return new Arithmetic(op, left, right) {
+                    @Override
+                    double apply(double l, double r) {
+                        if (r == 0.0) {
+                            throw new RuntimeError(op, "Divison by zero is not allowed");
+                        }
+                        return l / r;
+                    }
+                };
+            case GREATER:
+                return new Comparison(op, left, right) {
+                    @Override
+                    Object numbers(double l, double r) {
+                        return l > r;
+                    }
+
+                    @Override
+                    Object strings(Object l, Object r) {
+                        return Utils.compareStrings(l.toString(), r.toString()) > 0;
+                    }
+                };
+            case GREATER_EQUAL:
+                return new Comparison(op, left, right) {
+                    @Override
+                    Object numbers(double l, double r) {
+                        return l >= r;
+                    }
+
+                    @Override
+                    Object strings(Object l, Object r) {
+                        return Utils.compareStrings(l.toString(), r.toString()) >= 0;
+                    }
+                };
+            case LESS:
+                return new Comparison(op, left, right) {
+                    @Override
+                    Object numbers(double l, double r) {
+                        return l < r;
+                    }
+
+                    @Override
+                    Object strings(Object l, Object r) {
+                        return Utils.compareStrings(l.toString(), r.toString()) < 0;
+                    }
+                };
+            case LESS_EQUAL:
+                return new Comparison(op, left, right) {
+                    @Override
+                    Object numbers(double l, double r) {
+                        return l <= r;
+                    }
+
+                    @Override
+                    Object strings(Object l, Object r) {
+                        return Utils.compareStrings(l.toString(), r.toString()) <= 0;
+                    }
+                };
+            case EQUAL_EQUAL:
+                return new Equality(op, left, right, false);
+            case BANG_EQUAL:
+                return new Equality(op, left, right, true);
+            default:
+                return null;
+        }
+    }
+
+    /** Operators that produce a number from two numbers, so they can skip boxing too. */
+    private abstract static class Arithmetic extends BinaryNode {
+        Arithmetic(Token op, ExprNode left, ExprNode right) {
+            super(op, left, right);
+        }
+
+        abstract double apply(double l, double r);
+
+        @Override
+        Object numbers(double l, double r) {
+            return apply(l, r);
+        }
+
+        @Override
+        public double evaluateDouble(Frame frame) throws UnexpectedTypeException {
+            if (state != NUMBER) {
+                return UnexpectedTypeException.expectDouble(evaluate(frame));
+            }
+            double l;
+            try {
+                l = left.evaluateDouble(frame);
+            } catch (UnexpectedTypeException e) {
+                return UnexpectedTypeException.expectDouble(evaluate(e.value, right.evaluate(frame)));
+            }
+            double r;
+            try {
+                r = right.evaluateDouble(frame);
+            } catch (UnexpectedTypeException e) {
+                return UnexpectedTypeException.expectDouble(evaluate(l, e.value));
+            }
+            return apply(l, r);
+        }
+
+        @Override
+        Object generic(Object l, Object r) {
+            if (l instanceof Double && r instanceof Double) {
+                return numbers((double) l, (double) r);
+            }
+            throw new RuntimeError(op, "Invalid operand types");
+        }
+    }
+
+    private abstract static class Comparison extends BinaryNode {
+        Comparison(Token op, ExprNode left, ExprNode right) {
+            super(op, left, right);
+        }
+
+        @Override
+        boolean hasStringCase() {
+            return true;
+        }
+
+        @Override
+        abstract Object strings(Object l, Object r);
+
+        @Override
+        Object generic(Object l, Object r) {
+            if (l instanceof Double && r instanceof Double) {
+                return numbers((double) l, (double) r);
+            }
+            if (Utils.isString(l) && Utils.isString(r)) {
+                return strings(l, r);
+            }
+            return false;
+        }
+    }
+
+    private static class Equality extends BinaryNode {
+        private final boolean negated;
+
+        Equality(Token op, ExprNode left, ExprNode right, boolean negated) {
+            super(op, left, right);
+            this.negated = negated;
+        }
+
+        // Double.equals semantics, as in Utils.isEqual: NaN equals itself, 0.0 differs from -0.0
+        @Override
+        Object numbers(double l, double r) {
+            return (Double.doubleToLongBits(l) == Double.doubleToLongBits(r)) != negated;
+        }
+
+        @Override
+        boolean hasStringCase() {
+            return true;
+        }
+
+        @Override
+        Object strings(Object l, Object r) {
+            return l.toString().equals(r.toString()) != negated;
+        }
+
+        @Override
+        Object generic(Object l, Object r) {
+            return Utils.isEqual(l, r) != negated;
+        }
+    }
+}
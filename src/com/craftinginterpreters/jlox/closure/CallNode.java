@@ -0,0 +1,110 @@
+package com.craftinginterpreters.jlox.closure;
+
+import com.craftinginterpreters.jlox.interpreter.LoxCallable;
+import com.craftinginterpreters.jlox.interpreter.NativeError;
+import com.craftinginterpreters.jlox.interpreter.RuntimeError;
+import com.craftinginterpreters.jlox.syntax.Token;
+
+/**
+ * A call site with an inline cache of the callees it has seen. Lox closures
+ * are cached by their {@link FunctionCode}, so every closure of a declaration
+ * hits the same entry; natives are cached by identity. An entry is only added
+ * after the callable and arity checks passed, so a hit skips both. A site
+ * that sees more than {@link #MAX_ENTRIES} callees is megamorphic and stops
+ * caching.
+ */
+final class CallNode implements ExprNode {
+    static final int MAX_ENTRIES = 4;
+
+    private final ExprNode callee;
+    private final ExprNode[] arguments;
+    private final Token paren;
+    final String description;
+
+    private final Object[] entries = new Object[MAX_ENTRIES];
+    private int size;
+    boolean megamorphic;
+    long hits;
+    long misses;
+
+    CallNode(ExprNode callee, ExprNode[] arguments, Token paren, String description) {
+        this.callee = callee;
+        this.arguments = arguments;
+        this.paren = paren;
+        this.description = description;
+    }
+
+    @Override
+    public Object evaluate(Frame frame) {
+        Object function = callee.evaluate(frame);
+        Object[] values = new Object[arguments.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = arguments[i].evaluate(frame);
+        }
+        if (function instanceof ClosureFunction) {
+            ClosureFunction closure = (ClosureFunction) function;
+            if (isCached(closure.code)) {
+                hits++;
+                return closure.invoke(values);
+            }
+        } else if (isCached(function)) {
+            hits++;
+            return call((LoxCallable) function, values);
+        }
+        misses++;
+        return miss(function, values);
+    }
+
+    private boolean isCached(Object key) {
+        for (int i = 0; i < size; i++) {
+            if (entries[i] == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Object miss(Object function, Object[] values) {
+        if (!(function instanceof LoxCallable)) {
+            throw new RuntimeError(paren, "can only call functions and classes");
+        }
+        LoxCallable callable = (LoxCallable) function;
+        if (values.length != callable.arity()) {
+            throw new RuntimeError(paren,
+                    String.format("expected %d arguments but got %d", callable.arity(), values.length));
+        }
+        Object key = callable instanceof ClosureFunction ? ((ClosureFunction) callable).code : callable;
+        if (size < MAX_ENTRIES) {
+            entries[size++] = key;
+        } else {
+            megamorphic = true;
+        }
+        return call(callable, values);
+    }
+
+    private Object call(LoxCallable callable, Object[] values) {
+        try {
+            return callable.call(values);
+        } catch (NativeError error) {
+            throw error.at(paren);
+        }
+    }
+
+    int line() {
+        return paren.line;
+    }
+
+    String state() {
+        if (megamorphic) {
+            return "megamorphic";
+        }
+        switch (size) {
+            case 0:
+                return "uninitialized";
+            case 1:
+                return "monomorphic";
+            default:
+                return "polymorphic";
+        }
+    }
+}
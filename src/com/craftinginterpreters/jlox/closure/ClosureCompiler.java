@@ -0,0 +1,476 @@
+package com.craftinginterpreters.jlox.closure;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import com.craftinginterpreters.jlox.interpreter.Completion;
+import com.craftinginterpreters.jlox.interpreter.LoxArray;
+import com.craftinginterpreters.jlox.interpreter.LoxGlobalEnvironment;
+import com.craftinginterpreters.jlox.interpreter.Native;
+import com.craftinginterpreters.jlox.interpreter.RuntimeError;
+import com.craftinginterpreters.jlox.interpreter.Utils;
+import com.craftinginterpreters.jlox.syntax.Expression;
+import com.craftinginterpreters.jlox.syntax.Expression.ArrayLiteral;
+import com.craftinginterpreters.jlox.syntax.Expression.Assign;
+import com.craftinginterpreters.jlox.syntax.Expression.Binary;
+import com.craftinginterpreters.jlox.syntax.Expression.Call;
+import com.craftinginterpreters.jlox.syntax.Expression.CommaSeperated;
+import com.craftinginterpreters.jlox.syntax.Expression.FunctionExpr;
+import com.craftinginterpreters.jlox.syntax.Expression.Grouping;
+import com.craftinginterpreters.jlox.syntax.Expression.Index;
+import com.craftinginterpreters.jlox.syntax.Expression.IndexSet;
+import com.craftinginterpreters.jlox.syntax.Expression.Literal;
+import com.craftinginterpreters.jlox.syntax.Expression.Logical;
+import com.craftinginterpreters.jlox.syntax.Expression.Unary;
+import com.craftinginterpreters.jlox.syntax.Expression.Variable;
+import com.craftinginterpreters.jlox.syntax.Statement;
+import com.craftinginterpreters.jlox.syntax.Statement.Block;
+import com.craftinginterpreters.jlox.syntax.Statement.Break;
+import com.craftinginterpreters.jlox.syntax.Statement.Continue;
+import com.craftinginterpreters.jlox.syntax.Statement.Expr;
+import com.craftinginterpreters.jlox.syntax.Statement.For;
+import com.craftinginterpreters.jlox.syntax.Statement.Function;
+import com.craftinginterpreters.jlox.syntax.Statement.IfElse;
+import com.craftinginterpreters.jlox.syntax.Statement.Print;
+import com.craftinginterpreters.jlox.syntax.Statement.Return;
+import com.craftinginterpreters.jlox.syntax.Statement.Var;
+import com.craftinginterpreters.jlox.syntax.Statement.While;
+import com.craftinginterpreters.jlox.syntax.Token;
+
+/**
+ * Translates a resolved program into executable closures. Every decision
+ * that the tree-walking Interpreter makes per evaluation (which operator,
+ * global or local, which frame) is made here once. A local of an enclosing
+ * scope is read through the display of the current frame (see {@link Frame})
+ * at the static depth of its scope, so the cost does not grow with nesting.
+ */
+public class ClosureCompiler implements Expression.Visitor<ExprNode>, Statement.Visitor<StmtNode> {
+    private final LoxGlobalEnvironment globals;
+    // number of slots used by each scope being compiled, innermost last
+    private final Deque<int[]> scopes;
+    // number of scopes open at the start of the innermost function's body
+    private int functionDepth;
+    // deepest scope opened so far in the innermost function, which sizes its display
+    private int maxDepth = -1;
+    // every operator, call and intrinsic node, for the statistics printed by ClosureEngine
+    private final List<SpecializingNode> specializingNodes = new ArrayList<>();
+    private final List<CallNode> callNodes = new ArrayList<>();
+    private final List<IntrinsicNode> intrinsicNodes = new ArrayList<>();
+
+    public ClosureCompiler(LoxGlobalEnvironment globals) {
+        this.globals = globals;
+        this.scopes = new ArrayDeque<>();
+    }
+
+    StmtNode[] compile(List<Statement> statements) {
+        StmtNode[] nodes = new StmtNode[statements.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = compile(statements.get(i));
+        }
+        return nodes;
+    }
+
+    List<SpecializingNode> specializingNodes() {
+        return specializingNodes;
+    }
+
+    List<CallNode> callNodes() {
+        return callNodes;
+    }
+
+    List<IntrinsicNode> intrinsicNodes() {
+        return intrinsicNodes;
+    }
+
+    // statements
+
+    @Override
+    public StmtNode visitBlock(Block obj) {
+        int depth = scopes.size();
+        int enclosingMax = maxDepth;
+        beginScope();
+        StmtNode[] body = compile(obj.stmts);
+        int size = endScope();
+        int displaySize = maxDepth + 1;
+        maxDepth = Math.max(enclosingMax, maxDepth);
+        return frame -> {
+            Frame inner = new Frame(size, frame, depth, displaySize);
+            for (StmtNode stmt : body) {
+                Completion completion = stmt.execute(inner);
+                if (completion != Completion.NORMAL) {
+                    return completion;
+                }
+            }
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public StmtNode visitExpr(Expr obj) {
+        ExprNode expr = compile(obj.expr);
+        return statement(expr);
+    }
+
+    @Override
+    public StmtNode visitPrint(Print obj) {
+        ExprNode expr = compile(obj.expr);
+        return frame -> {
+            System.out.println(Utils.stringify(expr.evaluate(frame)));
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public StmtNode visitVar(Var obj) {
+        declare(obj.name);
+        ExprNode initializer = obj.initializer == null ? frame -> null : compile(obj.initializer);
+        return statement(store(obj.name, initializer, true));
+    }
+
+    @Override
+    public StmtNode visitIfElse(IfElse obj) {
+        ExprNode condition = compile(obj.condition);
+        StmtNode thenBranch = compile(obj.thenBranch);
+        if (obj.elseBranch == null) {
+            return frame -> {
+                if (Utils.isTruthy(condition.evaluate(frame))) {
+                    return thenBranch.execute(frame);
+                }
+                return Completion.NORMAL;
+            };
+        }
+        StmtNode elseBranch = compile(obj.elseBranch);
+        return frame -> {
+            if (Utils.isTruthy(condition.evaluate(frame))) {
+                return thenBranch.execute(frame);
+            }
+            return elseBranch.execute(frame);
+        };
+    }
+
+    @Override
+    public StmtNode visitWhile(While obj) {
+        ExprNode condition = compile(obj.codition);
+        StmtNode body = compile(obj.body);
+        return frame -> {
+            while (Utils.isTruthy(condition.evaluate(frame))) {
+                Completion completion = body.execute(frame);
+                if (completion == Completion.BREAK) {
+                    break;
+                }
+                if (completion == Completion.RETURN) {
+                    return completion;
+                }
+            }
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public StmtNode visitFor(For obj) {
+        StmtNode initializer = obj.initializer == null ? frame -> Completion.NORMAL : compile(obj.initializer);
+        ExprNode condition = compile(obj.condition);
+        StmtNode body = compile(obj.body);
+        ExprNode change = obj.change == null ? frame -> null : compile(obj.change);
+        return frame -> {
+            initializer.execute(frame);
+            while (Utils.isTruthy(condition.evaluate(frame))) {
+                Completion completion = body.execute(frame);
+                if (completion == Completion.BREAK) {
+                    break;
+                }
+                if (completion == Completion.RETURN) {
+                    return completion;
+                }
+                // continue falls through to the change clause
+                change.evaluate(frame);
+            }
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public StmtNode visitFunction(Function obj) {
+        declare(obj.name);
+        ExprNode function = function(obj.name, false, obj.params, obj.stmts);
+        return statement(store(obj.name, function, true));
+    }
+
+    @Override
+    public StmtNode visitBreak(Break obj) {
+        return frame -> Completion.BREAK;
+    }
+
+    @Override
+    public StmtNode visitContinue(Continue obj) {
+        return frame -> Completion.CONTINUE;
+    }
+
+    @Override
+    public StmtNode visitReturn(Return obj) {
+        ExprNode value = obj.expr == null ? frame -> null : compile(obj.expr);
+        // the value is left on the frame of the function, which ClosureFunction reads
+        if (scopes.size() == functionDepth) {
+            return frame -> {
+                frame.returnValue = value.evaluate(frame);
+                return Completion.RETURN;
+            };
+        }
+        int depth = functionDepth - 1;
+        return frame -> {
+            Object result = value.evaluate(frame);
+            frame.display[depth].returnValue = result;
+            return Completion.RETURN;
+        };
+    }
+
+    // expressions
+
+    @Override
+    public ExprNode visitAssign(Assign obj) {
+        return store(obj.name, compile(obj.value), false);
+    }
+
+    @Override
+    public ExprNode visitBinary(Binary obj) {
+        ExprNode left = compile(obj.left);
+        ExprNode right = compile(obj.right);
+        Token op = obj.op;
+        BinaryNode node = BinaryNode.create(op, left, right);
+        if (node != null) {
+            return specializing(node);
+        }
+        return frame -> {
+            left.evaluate(frame);
+            right.evaluate(frame);
+            throw new RuntimeError(op, "Invalid binary operator.");
+        };
+    }
+
+    @Override
+    public ExprNode visitUnary(Unary obj) {
+        ExprNode expr = compile(obj.expr);
+        Token op = obj.op;
+        UnaryNode node = UnaryNode.create(op, expr);
+        if (node != null) {
+            return specializing(node);
+        }
+        return frame -> {
+            expr.evaluate(frame);
+            throw new RuntimeError(op, "Invalid binary operator.");
+        };
+    }
+
+    @Override
+    public ExprNode visitGrouping(Grouping obj) {
+        return compile(obj.expr);
+    }
+
+    @Override
+    public ExprNode visitLiteral(Literal obj) {
+        Object value = obj.value;
+        return frame -> value;
+    }
+
+    @Override
+    public ExprNode visitCommaSeperated(CommaSeperated obj) {
+        ExprNode[] expressions = compileAll(obj.expressions);
+        return frame -> {
+            Object result = null;
+            for (ExprNode expr : expressions) {
+                result = expr.evaluate(frame);
+            }
+            return result;
+        };
+    }
+
+    @Override
+    public ExprNode visitVariable(Variable obj) {
+        Token name = obj.name;
+        int slot = name.slot;
+        switch (name.hops) {
+            case Token.GLOBAL:
+                return frame -> globals.get(name);
+            case 0:
+                return frame -> frame.slots[slot];
+            default:
+                int depth = depthOf(name);
+                return frame -> frame.display[depth].slots[slot];
+        }
+    }
+
+    @Override
+    public ExprNode visitLogical(Logical obj) {
+        ExprNode left = compile(obj.left);
+        ExprNode right = compile(obj.right);
+        switch (obj.op.type) {
+            case OR:
+            case AND:
+                return specializing(new LogicalNode(obj.op, left, right));
+            default:
+                break;
+        }
+        return frame -> {
+            left.evaluate(frame);
+            return right.evaluate(frame);
+        };
+    }
+
+    @Override
+    public ExprNode visitCall(Call obj) {
+        ExprNode callee = compile(obj.callee);
+        ExprNode[] arguments = compileAll(obj.arguments);
+        String description = obj.callee instanceof Variable ? ((Variable) obj.callee).name.lexeme : "<expression>";
+        CallNode node = new CallNode(callee, arguments, obj.paren, description);
+        if (obj.intrinsic != null) {
+            // the fallback only shows up in the statistics once the native's global is reassigned
+            IntrinsicNode intrinsic = new IntrinsicNode((Native) obj.intrinsic, globals, arguments, obj.paren, node);
+            intrinsicNodes.add(intrinsic);
+            return intrinsic;
+        }
+        callNodes.add(node);
+        return node;
+    }
+
+    @Override
+    public ExprNode visitArrayLiteral(ArrayLiteral obj) {
+        ExprNode[] elements = compileAll(obj.elements);
+        return frame -> {
+            Object[] values = new Object[elements.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = elements[i].evaluate(frame);
+            }
+            return LoxArray.of(values);
+        };
+    }
+
+    @Override
+    public ExprNode visitIndex(Index obj) {
+        return new IndexNode(compile(obj.array), compile(obj.index), obj.bracket);
+    }
+
+    @Override
+    public ExprNode visitIndexSet(IndexSet obj) {
+        return new IndexSetNode(compile(obj.array), compile(obj.index), compile(obj.value), obj.bracket);
+    }
+
+    @Override
+    public ExprNode visitFunctionExpr(FunctionExpr obj) {
+        return function(obj.name, obj.name != null, obj.params, obj.stmts);
+    }
+
+    // helpers
+
+    private StmtNode compile(Statement stmt) {
+        return stmt.accept(this);
+    }
+
+    private ExprNode compile(Expression expr) {
+        return expr.accept(this);
+    }
+
+    private ExprNode[] compileAll(List<Expression> expressions) {
+        ExprNode[] nodes = new ExprNode[expressions.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = compile(expressions.get(i));
+        }
+        return nodes;
+    }
+
+    private ExprNode function(Token name, boolean bindsSelf, List<Token> params, List<Statement> stmts) {
+        int enclosingDepth = functionDepth;
+        int enclosingMax = maxDepth;
+        int depth = scopes.size();
+        beginScope();
+        functionDepth = scopes.size();
+        int selfSlot = -1;
+        if (bindsSelf) {
+            declare(name);
+            selfSlot = name.slot;
+        }
+        int[] paramSlots = new int[params.size()];
+        for (int i = 0; i < paramSlots.length; i++) {
+            declare(params.get(i));
+            paramSlots[i] = params.get(i).slot;
+        }
+        StmtNode[] body = compile(stmts);
+        int size = endScope();
+        int displaySize = maxDepth + 1;
+        functionDepth = enclosingDepth;
+        maxDepth = enclosingMax;
+        String displayName = name == null ? "<anonymous>" : name.lexeme;
+        FunctionCode code = new FunctionCode(displayName, selfSlot, paramSlots, size, depth, displaySize, body);
+        return frame -> new ClosureFunction(code, Frame.capture(frame, depth));
+    }
+
+    private ExprNode store(Token name, ExprNode value, boolean definition) {
+        int slot = name.slot;
+        switch (name.hops) {
+            case Token.GLOBAL:
+                if (definition) {
+                    return frame -> {
+                        Object result = value.evaluate(frame);
+                        globals.define(name, result);
+                        return result;
+                    };
+                }
+                return frame -> {
+                    Object result = value.evaluate(frame);
+                    globals.assign(name, result);
+                    return result;
+                };
+            case 0:
+                return frame -> frame.slots[slot] = value.evaluate(frame);
+            default:
+                int depth = depthOf(name);
+                return frame -> {
+                    Object result = value.evaluate(frame);
+                    frame.display[depth].slots[slot] = result;
+                    return result;
+                };
+        }
+    }
+
+    private static StmtNode statement(ExprNode expr) {
+        if (expr instanceof IndexSetNode) {
+            IndexSetNode store = (IndexSetNode) expr;
+            return frame -> {
+                store.store(frame);
+                return Completion.NORMAL;
+            };
+        }
+        return frame -> {
+            expr.evaluate(frame);
+            return Completion.NORMAL;
+        };
+    }
+
+    private ExprNode specializing(SpecializingNode node) {
+        specializingNodes.add(node);
+        return node;
+    }
+
+    // static depth of the scope declaring a local
+    private int depthOf(Token name) {
+        return scopes.size() - 1 - name.hops;
+    }
+
+    private void beginScope() {
+        scopes.push(new int[1]);
+        maxDepth = Math.max(maxDepth, scopes.size() - 1);
+    }
+
+    private int endScope() {
+        return scopes.pop()[0];
+    }
+
+    private void declare(Token name) {
+        if (name.isGlobal() || scopes.isEmpty()) {
+            return;
+        }
+        int[] size = scopes.peek();
+        size[0] = Math.max(size[0], name.slot + 1);
+    }
+}
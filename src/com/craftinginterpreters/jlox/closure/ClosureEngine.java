@@ -0,0 +1,78 @@
+package com.craftinginterpreters.jlox.closure;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import com.craftinginterpreters.jlox.interpreter.Engine;
+import com.craftinginterpreters.jlox.interpreter.LoxGlobalEnvironment;
+import com.craftinginterpreters.jlox.interpreter.RuntimeError;
+import com.craftinginterpreters.jlox.syntax.Statement;
+import com.craftinginterpreters.jlox.tools.ErrorHandler;
+
+/**
+ * Runs programs by first compiling the resolved AST into a tree of closures
+ * (see {@link ClosureCompiler}) and then invoking the closures. Operators,
+ * literals and variable accesses are specialized once at compile time, so
+ * running a node is a single virtual call with no visitor hop and no switch.
+ * Operator nodes further specialize themselves on the operand types they see,
+ * see {@link SpecializingNode}.
+ */
+public class ClosureEngine implements Engine {
+    private static final int STATS_CALL_SITES = 20;
+
+    private final LoxGlobalEnvironment globals = new LoxGlobalEnvironment();
+    private final List<SpecializingNode> specializingNodes = new ArrayList<>();
+    private final List<CallNode> callNodes = new ArrayList<>();
+    private final List<IntrinsicNode> intrinsicNodes = new ArrayList<>();
+
+    @Override
+    public void interpret(List<Statement> statements) {
+        ClosureCompiler compiler = new ClosureCompiler(globals);
+        StmtNode[] program = compiler.compile(statements);
+        specializingNodes.addAll(compiler.specializingNodes());
+        callNodes.addAll(compiler.callNodes());
+        intrinsicNodes.addAll(compiler.intrinsicNodes());
+        try {
+            for (StmtNode stmt : program) {
+                stmt.execute(null);
+            }
+        } catch (RuntimeError error) {
+            ErrorHandler.runtimeError(error);
+        }
+    }
+
+    @Override
+    public void printStats(PrintStream out) {
+        int[] states = new int[SpecializingNode.STATE_NAMES.length];
+        int despecialized = 0;
+        for (SpecializingNode node : specializingNodes) {
+            states[node.state]++;
+            if (node.despecialized) {
+                despecialized++;
+            }
+        }
+        out.println(String.format("operator nodes: %d", specializingNodes.size()));
+        for (int state = 0; state < states.length; state++) {
+            out.println(String.format("  %-10s %d", SpecializingNode.STATE_NAMES[state], states[state]));
+        }
+        out.println(String.format("  rewritten to generic after a type miss: %d", despecialized));
+
+        // an intrinsic site is listed with the call sites only once it has run through its fallback
+        List<CallNode> sites = new ArrayList<>(callNodes);
+        for (IntrinsicNode node : intrinsicNodes) {
+            CallNode fallback = node.fallback();
+            if (fallback.hits + fallback.misses > 0) {
+                sites.add(fallback);
+            }
+        }
+        out.println(String.format("intrinsic call sites: %d", intrinsicNodes.size()));
+        out.println(String.format("call sites: %d (most cache misses first)", sites.size()));
+        sites.sort(Comparator.comparingLong((CallNode site) -> site.misses).reversed());
+        for (CallNode site : sites.subList(0, Math.min(STATS_CALL_SITES, sites.size()))) {
+            out.println(String.format("  [line %d] %s(): %d hits, %d misses, %s",
+                    site.line(), site.description, site.hits, site.misses, site.state()));
+        }
+    }
+}
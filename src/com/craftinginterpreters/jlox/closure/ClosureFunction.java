@@ -0,0 +1,56 @@
+package com.craftinginterpreters.jlox.closure;
+
+import java.util.List;
+
+import com.craftinginterpreters.jlox.interpreter.Completion;
+import com.craftinginterpreters.jlox.interpreter.LoxCallable;
+
+class ClosureFunction implements LoxCallable {
+    final FunctionCode code;
+    // the frames of the enclosing scopes when the closure was created, indexed by depth
+    private final Frame[] enclosing;
+
+    ClosureFunction(FunctionCode code, Frame[] enclosing) {
+        this.code = code;
+        this.enclosing = enclosing;
+    }
+
+    @Override
+    public Object call(List<Object> arguments) {
+        return invoke(arguments.toArray());
+    }
+
+    @Override
+    public Object call(Object[] arguments) {
+        return invoke(arguments);
+    }
+
+    /** Calls with arguments already checked against the arity, as done by {@link CallNode}. */
+    final Object invoke(Object[] arguments) {
+        FunctionCode code = this.code;
+        Frame frame = new Frame(code.frameSize, enclosing, code.depth, code.displaySize);
+        if (code.selfSlot >= 0) {
+            frame.slots[code.selfSlot] = this;
+        }
+        int[] paramSlots = code.paramSlots;
+        for (int i = 0; i < paramSlots.length; i++) {
+            frame.slots[paramSlots[i]] = arguments[i];
+        }
+        for (StmtNode stmt : code.body) {
+            if (stmt.execute(frame) == Completion.RETURN) {
+                return frame.returnValue;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int arity() {
+        return code.paramSlots.length;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<fn %s>", code.name);
+    }
+}
@@ -0,0 +1,15 @@
+package com.craftinginterpreters.jlox.closure;
+
+@FunctionalInterface
+interface ExprNode {
+    Object evaluate(Frame frame);
+
+    /**
+     * Evaluates a node expected to produce a number without boxing it. Nodes
+     * that compute numbers override this, so nested arithmetic only boxes the
+     * result that leaves the numeric subtree.
+     */
+    default double evaluateDouble(Frame frame) throws UnexpectedTypeException {
+        return UnexpectedTypeException.expectDouble(evaluate(frame));
+    }
+}
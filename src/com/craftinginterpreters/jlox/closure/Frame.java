@@ -0,0 +1,44 @@
+package com.craftinginterpreters.jlox.closure;
+
+import java.util.Arrays;
+
+/**
+ * Storage for one resolved scope. Slots are laid out by the Resolver, so
+ * the size is known when the scope is compiled and never has to grow.
+ *
+ * Every frame also sees a display: the innermost live frame of each scope
+ * enclosing it, indexed by static depth, so a variable of any enclosing
+ * scope is one array index away. The frames of one call share a display;
+ * a block stores itself at its depth on entry. A closure takes a copy of
+ * the display up to its own depth when it is created, since later blocks
+ * of the same call reuse the entries.
+ */
+final class Frame {
+    private static final Frame[] EMPTY = new Frame[0];
+
+    final Object[] slots;
+    final Frame[] display;
+    // set by a return statement on the frame of its function
+    Object returnValue;
+
+    /** The frame of a block at the given depth, nested in parent (null at the top level). */
+    Frame(int size, Frame parent, int depth, int displaySize) {
+        this(size, parent == null ? EMPTY : parent.display, depth, displaySize);
+    }
+
+    /** The frame of a call, below the scopes captured in enclosing. */
+    Frame(int size, Frame[] enclosing, int depth, int displaySize) {
+        this.slots = new Object[size];
+        if (depth < enclosing.length) {
+            this.display = enclosing;
+        } else {
+            this.display = Arrays.copyOf(enclosing, Math.max(depth + 1, displaySize));
+        }
+        display[depth] = this;
+    }
+
+    /** The display of a closure created in frame, which is at depth - 1 (null at the top level). */
+    static Frame[] capture(Frame frame, int depth) {
+        return frame == null ? EMPTY : Arrays.copyOf(frame.display, depth);
+    }
+}
@@ -0,0 +1,27 @@
+package com.craftinginterpreters.jlox.closure;
+
+/**
+ * The compiled form of a function declaration, shared by every closure
+ * created from it.
+ */
+final class FunctionCode {
+    final String name;
+    final int selfSlot;
+    final int[] paramSlots;
+    final int frameSize;
+    // static depth of the function's scope, and the display its calls need, see Frame
+    final int depth;
+    final int displaySize;
+    final StmtNode[] body;
+
+    FunctionCode(String name, int selfSlot, int[] paramSlots, int frameSize, int depth, int displaySize,
+            StmtNode[] body) {
+        this.name = name;
+        this.selfSlot = selfSlot;
+        this.paramSlots = paramSlots;
+        this.frameSize = frameSize;
+        this.depth = depth;
+        this.displaySize = displaySize;
+        this.body = body;
+    }
+}
@@ -0,0 +1,41 @@
+package com.craftinginterpreters.jlox.closure;
+
+import com.craftinginterpreters.jlox.interpreter.LoxArray;
+import com.craftinginterpreters.jlox.syntax.Token;
+
+/**
+ * Reads an element of an array. A numeric parent reads it through
+ * evaluateDouble, which takes it straight from the double[] of a numeric
+ * array without boxing.
+ */
+final class IndexNode implements ExprNode {
+    private final ExprNode array;
+    private final ExprNode index;
+    private final Token bracket;
+
+    IndexNode(ExprNode array, ExprNode index, Token bracket) {
+        this.array = array;
+        this.index = index;
+        this.bracket = bracket;
+    }
+
+    @Override
+    public Object evaluate(Frame frame) {
+        Object value = array.evaluate(frame);
+        Object at = index.evaluate(frame);
+        LoxArray target = LoxArray.cast(value, bracket);
+        return target.get(target.index(at, bracket));
+    }
+
+    @Override
+    public double evaluateDouble(Frame frame) throws UnexpectedTypeException {
+        Object value = array.evaluate(frame);
+        Object at = index.evaluate(frame);
+        LoxArray target = LoxArray.cast(value, bracket);
+        int i = target.index(at, bracket);
+        if (target.isNumeric()) {
+            return target.getDouble(i);
+        }
+        return UnexpectedTypeException.expectDouble(target.get(i));
+    }
+}
@@ -0,0 +1,74 @@
+package com.craftinginterpreters.jlox.closure;
+
+import com.craftinginterpreters.jlox.interpreter.LoxArray;
+import com.craftinginterpreters.jlox.syntax.Token;
+
+/**
+ * Stores into an element of an array. While the array is numeric the value
+ * is read through evaluateDouble and stored into its double[] unboxed; a
+ * store whose value is not used, as in an expression statement, goes
+ * through {@link #store} and boxes nothing.
+ */
+final class IndexSetNode implements ExprNode {
+    private final ExprNode array;
+    private final ExprNode index;
+    private final ExprNode value;
+    private final Token bracket;
+
+    IndexSetNode(ExprNode array, ExprNode index, ExprNode value, Token bracket) {
+        this.array = array;
+        this.index = index;
+        this.value = value;
+        this.bracket = bracket;
+    }
+
+    @Override
+    public Object evaluate(Frame frame) {
+        Object target = array.evaluate(frame);
+        Object at = index.evaluate(frame);
+        if (target instanceof LoxArray && ((LoxArray) target).isNumeric()) {
+            double number;
+            try {
+                number = value.evaluateDouble(frame);
+            } catch (UnexpectedTypeException e) {
+                return store(target, at, e.value);
+            }
+            store((LoxArray) target, at, number);
+            return number;
+        }
+        return store(target, at, value.evaluate(frame));
+    }
+
+    @Override
+    public double evaluateDouble(Frame frame) throws UnexpectedTypeException {
+        return UnexpectedTypeException.expectDouble(evaluate(frame));
+    }
+
+    /** Evaluates the store for its effect only. */
+    void store(Frame frame) {
+        Object target = array.evaluate(frame);
+        Object at = index.evaluate(frame);
+        if (target instanceof LoxArray && ((LoxArray) target).isNumeric()) {
+            double number;
+            try {
+                number = value.evaluateDouble(frame);
+            } catch (UnexpectedTypeException e) {
+                store(target, at, e.value);
+                return;
+            }
+            store((LoxArray) target, at, number);
+            return;
+        }
+        store(target, at, value.evaluate(frame));
+    }
+
+    private void store(LoxArray target, Object at, double number) {
+        target.setDouble(target.index(at, bracket), number);
+    }
+
+    private Object store(Object target, Object at, Object result) {
+        LoxArray array = LoxArray.cast(target, bracket);
+        array.set(array.index(at, bracket), result);
+        return result;
+    }
+}
@@ -0,0 +1,65 @@
+package com.craftinginterpreters.jlox.closure;
+
+import com.craftinginterpreters.jlox.interpreter.LoxGlobalEnvironment;
+import com.craftinginterpreters.jlox.interpreter.Native;
+import com.craftinginterpreters.jlox.syntax.Token;
+
+/**
+ * A call the Resolver recognized as a native. Arguments are passed straight
+ * to the native without an argument list, and a numeric parent gets the
+ * result unboxed. Arguments are read boxed: the unboxed channel's handler in
+ * every argument kept HotSpot from inlining the chain and made the node twice
+ * as slow as a generic call. Once the program assigns the native's global the
+ * call goes through the ordinary call node instead.
+ */
+final class IntrinsicNode implements ExprNode {
+    private final Native function;
+    private final LoxGlobalEnvironment globals;
+    private final ExprNode[] arguments;
+    private final Token paren;
+    private final CallNode fallback;
+
+    IntrinsicNode(Native function, LoxGlobalEnvironment globals, ExprNode[] arguments, Token paren,
+            CallNode fallback) {
+        this.function = function;
+        this.globals = globals;
+        this.arguments = arguments;
+        this.paren = paren;
+        this.fallback = fallback;
+    }
+
+    @Override
+    public Object evaluate(Frame frame) {
+        if (!globals.isIntact(function)) {
+            return fallback.evaluate(frame);
+        }
+        return apply(frame);
+    }
+
+    @Override
+    public double evaluateDouble(Frame frame) throws UnexpectedTypeException {
+        if (!globals.isIntact(function)) {
+            return UnexpectedTypeException.expectDouble(fallback.evaluate(frame));
+        }
+        return apply(frame);
+    }
+
+    // every argument is evaluated before any is checked, as in a call through the fallback
+    private double apply(Frame frame) {
+        switch (arguments.length) {
+            case 0:
+                return function.apply0();
+            case 1:
+                return function.apply1(function.number(arguments[0].evaluate(frame), paren));
+            default:
+                Object x = arguments[0].evaluate(frame);
+                Object y = arguments[1].evaluate(frame);
+                return function.apply2(function.number(x, paren), function.number(y, paren));
+        }
+    }
+
+    /** The ordinary call node this site switches to once the native's global is reassigned. */
+    CallNode fallback() {
+        return fallback;
+    }
+}
@@ -0,0 +1,35 @@
+package com.craftinginterpreters.jlox.closure;
+
+import com.craftinginterpreters.jlox.interpreter.Utils;
+import com.craftinginterpreters.jlox.syntax.Token;
+import com.craftinginterpreters.jlox.syntax.TokenType;
+
+/** `and` / `or` specialized to a boolean left operand. */
+class LogicalNode extends SpecializingNode {
+    private final ExprNode left;
+    private final ExprNode right;
+    // `or` short-circuits on a truthy left operand, `and` on a falsey one
+    private final boolean shortCircuitsOn;
+
+    LogicalNode(Token op, ExprNode left, ExprNode right) {
+        super(op);
+        this.left = left;
+        this.right = right;
+        this.shortCircuitsOn = op.type == TokenType.OR;
+    }
+
+    @Override
+    public Object evaluate(Frame frame) {
+        Object value = left.evaluate(frame);
+        boolean truthy;
+        if (state == BOOLEAN && value instanceof Boolean) {
+            truthy = (boolean) value;
+        } else {
+            if (state != GENERIC) {
+                rewrite(state == UNINITIALIZED && value instanceof Boolean ? BOOLEAN : GENERIC);
+            }
+            truthy = Utils.isTruthy(value);
+        }
+        return truthy == shortCircuitsOn ? value : right.evaluate(frame);
+    }
+}
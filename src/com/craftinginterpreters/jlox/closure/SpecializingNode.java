@@ -0,0 +1,33 @@
+package com.craftinginterpreters.jlox.closure;
+
+import com.craftinginterpreters.jlox.syntax.Token;
+
+/**
+ * An operator node that rewrites itself according to the operand types it
+ * sees. The first evaluation picks a specialization from the observed types;
+ * once a specialized node sees other types it turns generic for good, so a
+ * node changes state at most twice.
+ */
+abstract class SpecializingNode implements ExprNode {
+    static final int UNINITIALIZED = 0;
+    static final int NUMBER = 1;
+    static final int STRING = 2;
+    static final int BOOLEAN = 3;
+    static final int GENERIC = 4;
+    static final String[] STATE_NAMES = { "unexecuted", "number", "string", "boolean", "generic" };
+
+    final Token op;
+    int state = UNINITIALIZED;
+    boolean despecialized;
+
+    SpecializingNode(Token op) {
+        this.op = op;
+    }
+
+    final void rewrite(int state) {
+        if (this.state != UNINITIALIZED) {
+            despecialized = true;
+        }
+        this.state = state;
+    }
+}
@@ -0,0 +1,8 @@
+package com.craftinginterpreters.jlox.closure;
+
+import com.craftinginterpreters.jlox.interpreter.Completion;
+
+@FunctionalInterface
+interface StmtNode {
+    Completion execute(Frame frame);
+}
@@ -0,0 +1,75 @@
+package com.craftinginterpreters.jlox.closure;
+
+import com.craftinginterpreters.jlox.interpreter.RuntimeError;
+import com.craftinginterpreters.jlox.interpreter.Utils;
+import com.craftinginterpreters.jlox.syntax.Token;
+
+/** Negation specialized to numbers and `!` specialized to booleans. */
+abstract class UnaryNode extends SpecializingNode {
+    final ExprNode expr;
+
+    UnaryNode(Token op, ExprNode expr) {
+        super(op);
+        this.expr = expr;
+    }
+
+    /** The node for a unary operator, or null if the operator is not known. */
+    static UnaryNode create(Token op, ExprNode expr) {
+        switch (op.type) {
+            case MINUS:
+                return new Negate(op, expr);
+            case BANG:
+                return new Not(op, expr);
+            default:
+                return null;
+        }
+    }
+
+    private static class Negate extends UnaryNode {
+        Negate(Token op, ExprNode expr) {
+            super(op, expr);
+        }
+
+        @Override
+        public Object evaluate(Frame frame) {
+            return evaluateDouble(frame);
+        }
+
+        // negation only succeeds on numbers, so this is also the generic path
+        @Override
+        public double evaluateDouble(Frame frame) {
+            double value;
+            try {
+                value = expr.evaluateDouble(frame);
+            } catch (UnexpectedTypeException e) {
+                if (state != GENERIC) {
+                    rewrite(GENERIC);
+                }
+                throw new RuntimeError(op, "Invalid operand types");
+            }
+            if (state == UNINITIALIZED) {
+                rewrite(NUMBER);
+            }
+            return -value;
+        }
+    }
+
+    private static class Not extends UnaryNode {
+        Not(Token op, ExprNode expr) {
+            super(op, expr);
+        }
+
+        @Override
+        public Object evaluate(Frame frame) {
+            Object value = expr.evaluate(frame);
+            if (state == BOOLEAN && value instanceof Boolean) {
+                return !(boolean) value;
+            }
+            if (state == GENERIC) {
+                return !Utils.isTruthy(value);
+            }
+            rewrite(state == UNINITIALIZED && value instanceof Boolean ? BOOLEAN : GENERIC);
+            return !Utils.isTruthy(value);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.craftinginterpreters.jlox.closure;
+
+/**
+ * Thrown by {@link ExprNode#evaluateDouble} when the value is not a number.
+ * Carries the value so the caller can continue on its generic path without
+ * evaluating the node twice.
+ */
+final class UnexpectedTypeException extends Exception {
+    final Object value;
+
+    UnexpectedTypeException(Object value) {
+        super(null, null, false, false);
+        this.value = value;
+    }
+
+    static double expectDouble(Object value) throws UnexpectedTypeException {
+        if (value instanceof Double) {
+            return (double) value;
+        }
+        throw new UnexpectedTypeException(value);
+    }
+}
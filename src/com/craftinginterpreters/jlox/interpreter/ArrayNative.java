@@ -0,0 +1,69 @@
+package com.craftinginterpreters.jlox.interpreter;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A native working on arrays, registered in {@link LoxGlobalEnvironment}
+ * next to the numeric {@link Native}s. It takes values of any type, so its
+ * calls are ordinary calls and not intrinsics; a bad argument is a
+ * {@link NativeError}, reported at the call.
+ */
+final class ArrayNative implements LoxCallable {
+    static final List<ArrayNative> ALL = List.of(
+            new ArrayNative("array", 1, arguments -> LoxArray.zeros(length(arguments.get(0)))),
+            new ArrayNative("len", 1, arguments -> (double) array("len", arguments.get(0)).size()),
+            new ArrayNative("push", 2, arguments -> {
+                array("push", arguments.get(0)).push(arguments.get(1));
+                return null;
+            }),
+            new ArrayNative("sort", 1, arguments -> {
+                array("sort", arguments.get(0)).sort();
+                return null;
+            }));
+
+    final String name;
+    private final int arity;
+    private final Function<List<Object>, Object> body;
+
+    private ArrayNative(String name, int arity, Function<List<Object>, Object> body) {
+        this.name = name;
+        this.arity = arity;
+        this.body = body;
+    }
+
+    private static LoxArray array(String name, Object argument) {
+        if (argument instanceof LoxArray) {
+            return (LoxArray) argument;
+        }
+        throw new NativeError(String.format("%s expects an array", name));
+    }
+
+    private static int length(Object argument) {
+        if (argument instanceof Double) {
+            double length = (double) argument;
+            if (length >= 0 && length == Math.floor(length)) {
+                if (length > LoxArray.MAX_LENGTH) {
+                    throw LoxArray.tooLarge();
+                }
+                return (int) length;
+            }
+        }
+        throw new NativeError("array expects a whole number of elements");
+    }
+
+    @Override
+    public Object call(List<Object> arguments) {
+        return body.apply(arguments);
+    }
+
+    @Override
+    public int arity() {
+        return arity;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<native fn %s>", name);
+    }
+}
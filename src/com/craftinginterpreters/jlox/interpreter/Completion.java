@@ -0,0 +1,13 @@
+package com.craftinginterpreters.jlox.interpreter;
+
+/**
+ * How a statement finished. Statements hand this to their enclosing statement
+ * instead of throwing, so loops and function calls see break, continue and
+ * return as plain return values. The value of a return is kept by the engine.
+ */
+public enum Completion {
+    NORMAL,
+    BREAK,
+    CONTINUE,
+    RETURN
+}
@@ -1,5 +0,0 @@
-package com.craftinginterpreters.jlox.interpreter;
-
-public class ContinueException extends RuntimeException {
-    
-}
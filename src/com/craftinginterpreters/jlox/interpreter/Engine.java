@@ -0,0 +1,18 @@
+package com.craftinginterpreters.jlox.interpreter;
+
+import java.io.PrintStream;
+import java.util.List;
+
+import com.craftinginterpreters.jlox.syntax.Statement;
+
+/**
+ * An execution strategy for resolved programs. Every engine owns its globals,
+ * so consecutive calls (as in the REPL) see earlier definitions.
+ */
+public interface Engine {
+    void interpret(List<Statement> statements);
+
+    /** Prints what the engine observed while running, for --stats. */
+    default void printStats(PrintStream out) {
+    }
+}
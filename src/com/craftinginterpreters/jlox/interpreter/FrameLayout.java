@@ -0,0 +1,348 @@
+package com.craftinginterpreters.jlox.interpreter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.craftinginterpreters.jlox.syntax.Expression;
+import com.craftinginterpreters.jlox.syntax.Expression.ArrayLiteral;
+import com.craftinginterpreters.jlox.syntax.Expression.Assign;
+import com.craftinginterpreters.jlox.syntax.Expression.Binary;
+import com.craftinginterpreters.jlox.syntax.Expression.Call;
+import com.craftinginterpreters.jlox.syntax.Expression.CommaSeperated;
+import com.craftinginterpreters.jlox.syntax.Expression.FunctionExpr;
+import com.craftinginterpreters.jlox.syntax.Expression.Grouping;
+import com.craftinginterpreters.jlox.syntax.Expression.Index;
+import com.craftinginterpreters.jlox.syntax.Expression.IndexSet;
+import com.craftinginterpreters.jlox.syntax.Expression.Literal;
+import com.craftinginterpreters.jlox.syntax.Expression.Logical;
+import com.craftinginterpreters.jlox.syntax.Expression.Unary;
+import com.craftinginterpreters.jlox.syntax.Expression.Variable;
+import com.craftinginterpreters.jlox.syntax.Statement;
+import com.craftinginterpreters.jlox.syntax.Statement.Block;
+import com.craftinginterpreters.jlox.syntax.Statement.Break;
+import com.craftinginterpreters.jlox.syntax.Statement.Continue;
+import com.craftinginterpreters.jlox.syntax.Statement.Expr;
+import com.craftinginterpreters.jlox.syntax.Statement.For;
+import com.craftinginterpreters.jlox.syntax.Statement.Function;
+import com.craftinginterpreters.jlox.syntax.Statement.IfElse;
+import com.craftinginterpreters.jlox.syntax.Statement.Print;
+import com.craftinginterpreters.jlox.syntax.Statement.Return;
+import com.craftinginterpreters.jlox.syntax.Statement.Var;
+import com.craftinginterpreters.jlox.syntax.Statement.While;
+import com.craftinginterpreters.jlox.syntax.Token;
+
+/**
+ * Decides where the Interpreter keeps each local. Every scope of a function
+ * lives in that function's frame on the value stack; sibling blocks share
+ * slots, so a block reuses the offsets of the blocks that ended before it.
+ * A nested function reaches the locals of enclosing functions through
+ * upvalues: each closure captures only the variables it uses, the same way
+ * the {@link com.craftinginterpreters.jlox.vm.BytecodeCompiler} lays out
+ * frames for the VM.
+ *
+ * Runs on a resolved program; the frame size and upvalues of every function
+ * and the offset of every block are stored on the declaration.
+ */
+class FrameLayout implements Expression.Visitor<Void>, Statement.Visitor<Void> {
+    private static class FunctionState {
+        final FunctionState enclosing;
+        // pairs of (isLocal, index) describing where each upvalue is captured from
+        final List<int[]> upvalues = new ArrayList<>();
+        // first free offset in the frame, and the most it has used
+        int top;
+        int size;
+
+        FunctionState(FunctionState enclosing) {
+            this.enclosing = enclosing;
+        }
+    }
+
+    private static class Scope {
+        final FunctionState function;
+        final int base;
+
+        Scope(FunctionState function, int base) {
+            this.function = function;
+            this.base = base;
+        }
+    }
+
+    private final List<Scope> scopes = new ArrayList<>();
+    private FunctionState current = new FunctionState(null);
+
+    /** Lays out a program and returns the size of its top level frame. */
+    static int layout(List<Statement> statements) {
+        FrameLayout layout = new FrameLayout();
+        for (Statement stmt : statements) {
+            layout.walk(stmt);
+        }
+        return layout.current.size;
+    }
+
+    /** Lays out a single top level expression. */
+    static int layout(Expression expression) {
+        FrameLayout layout = new FrameLayout();
+        layout.walk(expression);
+        return layout.current.size;
+    }
+
+    private void walk(Statement stmt) {
+        if (stmt != null) {
+            stmt.accept(this);
+        }
+    }
+
+    private void walk(Expression expr) {
+        if (expr != null) {
+            expr.accept(this);
+        }
+    }
+
+    private void locate(Token name) {
+        if (name.isGlobal()) {
+            return;
+        }
+        Scope scope = scopes.get(scopes.size() - 1 - name.hops);
+        int slot = scope.base + name.slot;
+        if (scope.function == current) {
+            name.stackSlot = slot;
+            return;
+        }
+        name.stackSlot = Token.NOT_ON_STACK;
+        name.upvalue = resolveUpvalue(current, scope, slot);
+    }
+
+    private int resolveUpvalue(FunctionState function, Scope scope, int slot) {
+        if (function.enclosing == scope.function) {
+            return addUpvalue(function, true, slot);
+        }
+        int index = resolveUpvalue(function.enclosing, scope, slot);
+        return addUpvalue(function, false, index);
+    }
+
+    private int addUpvalue(FunctionState function, boolean isLocal, int index) {
+        for (int i = 0; i < function.upvalues.size(); i++) {
+            int[] upvalue = function.upvalues.get(i);
+            if (upvalue[0] == (isLocal ? 1 : 0) && upvalue[1] == index) {
+                return i;
+            }
+        }
+        function.upvalues.add(new int[] { isLocal ? 1 : 0, index });
+        return function.upvalues.size() - 1;
+    }
+
+    private int beginScope(int slots) {
+        int base = current.top;
+        scopes.add(new Scope(current, base));
+        current.top += slots;
+        current.size = Math.max(current.size, current.top);
+        return base;
+    }
+
+    private void endScope() {
+        Scope scope = scopes.remove(scopes.size() - 1);
+        current.top = scope.base;
+    }
+
+    private FunctionState function(int slots, Token name, List<Token> params, List<Statement> stmts) {
+        FunctionState function = new FunctionState(current);
+        current = function;
+        beginScope(slots);
+        if (name != null) {
+            locate(name);
+        }
+        for (Token param : params) {
+            locate(param);
+        }
+        for (Statement stmt : stmts) {
+            walk(stmt);
+        }
+        endScope();
+        current = function.enclosing;
+        return function;
+    }
+
+    // flattened (isLocal, index) pairs, as the Interpreter reads them when it creates a closure
+    private static int[] upvalues(FunctionState function) {
+        int[] upvalues = new int[function.upvalues.size() * 2];
+        for (int i = 0; i < function.upvalues.size(); i++) {
+            upvalues[2 * i] = function.upvalues.get(i)[0];
+            upvalues[2 * i + 1] = function.upvalues.get(i)[1];
+        }
+        return upvalues;
+    }
+
+    // statements
+
+    @Override
+    public Void visitBlock(Block obj) {
+        obj.offset = beginScope(obj.slots);
+        for (Statement stmt : obj.stmts) {
+            walk(stmt);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitExpr(Expr obj) {
+        walk(obj.expr);
+        return null;
+    }
+
+    @Override
+    public Void visitPrint(Print obj) {
+        walk(obj.expr);
+        return null;
+    }
+
+    @Override
+    public Void visitVar(Var obj) {
+        walk(obj.initializer);
+        locate(obj.name);
+        return null;
+    }
+
+    @Override
+    public Void visitIfElse(IfElse obj) {
+        walk(obj.condition);
+        walk(obj.thenBranch);
+        walk(obj.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitWhile(While obj) {
+        walk(obj.codition);
+        walk(obj.body);
+        return null;
+    }
+
+    @Override
+    public Void visitFor(For obj) {
+        walk(obj.initializer);
+        walk(obj.condition);
+        walk(obj.change);
+        walk(obj.body);
+        return null;
+    }
+
+    @Override
+    public Void visitFunction(Function obj) {
+        locate(obj.name);
+        FunctionState function = function(obj.slots, null, obj.params, obj.stmts);
+        obj.frameSize = function.size;
+        obj.upvalues = upvalues(function);
+        return null;
+    }
+
+    @Override
+    public Void visitBreak(Break obj) {
+        return null;
+    }
+
+    @Override
+    public Void visitContinue(Continue obj) {
+        return null;
+    }
+
+    @Override
+    public Void visitReturn(Return obj) {
+        walk(obj.expr);
+        return null;
+    }
+
+    // expressions
+
+    @Override
+    public Void visitAssign(Assign obj) {
+        walk(obj.value);
+        locate(obj.name);
+        return null;
+    }
+
+    @Override
+    public Void visitBinary(Binary obj) {
+        walk(obj.left);
+        walk(obj.right);
+        return null;
+    }
+
+    @Override
+    public Void visitUnary(Unary obj) {
+        walk(obj.expr);
+        return null;
+    }
+
+    @Override
+    public Void visitGrouping(Grouping obj) {
+        walk(obj.expr);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteral(Literal obj) {
+        return null;
+    }
+
+    @Override
+    public Void visitCommaSeperated(CommaSeperated obj) {
+        for (Expression expr : obj.expressions) {
+            walk(expr);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariable(Variable obj) {
+        locate(obj.name);
+        return null;
+    }
+
+    @Override
+    public Void visitLogical(Logical obj) {
+        walk(obj.left);
+        walk(obj.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCall(Call obj) {
+        walk(obj.callee);
+        for (Expression expr : obj.arguments) {
+            walk(expr);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitArrayLiteral(ArrayLiteral obj) {
+        for (Expression expr : obj.elements) {
+            walk(expr);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIndex(Index obj) {
+        walk(obj.array);
+        walk(obj.index);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexSet(IndexSet obj) {
+        walk(obj.array);
+        walk(obj.index);
+        walk(obj.value);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionExpr(FunctionExpr obj) {
+        FunctionState function = function(obj.slots, obj.name, obj.params, obj.stmts);
+        obj.frameSize = function.size;
+        obj.upvalues = upvalues(function);
+        return null;
+    }
+}
@@ -2,20 +2,51 @@ package com.craftinginterpreters.jlox.interpreter;
 
 import java.util.List;
 
+import com.craftinginterpreters.jlox.jit.CompiledFunction;
 import com.craftinginterpreters.jlox.syntax.Statement;
 import com.craftinginterpreters.jlox.syntax.Token;
 
+/**
+ * Everything a function declaration contributes to its closures. There is one
+ * per declaration, so it also carries the call count and compiled body used by
+ * the {@link com.craftinginterpreters.jlox.jit.Jit} and the cache of a memoized
+ * function.
+ */
 public class FunctionData {
     public final List<Statement> statements;
     public final List<Token> parameters;
     public final Token name;
+    public final boolean bindsSelf;
+    // stack slots a call takes for its own scope and the blocks in it
+    public final int frameSize;
+    // (isLocal, index) pairs: where a closure finds each variable it captures, see FrameLayout
+    public final int[] upvalues;
+
+    public int calls;
+    public CompiledFunction compiled;
+    public boolean jitFailed;
+    // results of earlier calls when the function is pure and memoization is on
+    Memo memo;
 
     public FunctionData(
             Token name,
             List<Token> parameters,
             List<Statement> statements) {
+        this(name, parameters, statements, 0, new int[0], false);
+    }
+
+    public FunctionData(
+            Token name,
+            List<Token> parameters,
+            List<Statement> statements,
+            int frameSize,
+            int[] upvalues,
+            boolean bindsSelf) {
         this.name = name;
+        this.frameSize = frameSize;
+        this.upvalues = upvalues;
         this.parameters = parameters;
         this.statements = statements;
+        this.bindsSelf = bindsSelf;
     }
 }
@@ -1,15 +1,25 @@
 package com.craftinginterpreters.jlox.interpreter;
 
+import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import com.craftinginterpreters.jlox.jit.Jit;
+import com.craftinginterpreters.jlox.optimizer.Purity;
 import com.craftinginterpreters.jlox.syntax.Expression;
+import com.craftinginterpreters.jlox.syntax.Expression.ArrayLiteral;
 import com.craftinginterpreters.jlox.syntax.Expression.Assign;
 import com.craftinginterpreters.jlox.syntax.Expression.Binary;
 import com.craftinginterpreters.jlox.syntax.Expression.Call;
 import com.craftinginterpreters.jlox.syntax.Expression.CommaSeperated;
 import com.craftinginterpreters.jlox.syntax.Expression.FunctionExpr;
 import com.craftinginterpreters.jlox.syntax.Expression.Grouping;
+import com.craftinginterpreters.jlox.syntax.Expression.Index;
+import com.craftinginterpreters.jlox.syntax.Expression.IndexSet;
 import com.craftinginterpreters.jlox.syntax.Expression.Literal;
 import com.craftinginterpreters.jlox.syntax.Expression.Logical;
 import com.craftinginterpreters.jlox.syntax.Expression.Unary;
@@ -26,154 +36,479 @@ import com.craftinginterpreters.jlox.syntax.Statement.Print;
 import com.craftinginterpreters.jlox.syntax.Statement.Return;
 import com.craftinginterpreters.jlox.syntax.Statement.Var;
 import com.craftinginterpreters.jlox.syntax.Statement.While;
-import com.craftinginterpreters.jlox.tools.AstPrinter;
+import com.craftinginterpreters.jlox.syntax.Token;
 import com.craftinginterpreters.jlox.tools.ErrorHandler;
-import com.craftinginterpreters.jlox.tools.Logger;
+import com.craftinginterpreters.jlox.tools.Metrics;
+
+public class Interpreter implements Engine, Expression.Visitor<Object>, Statement.Visitor<Completion> {
+    private static final int STACK_SIZE = 256;
+    // statements run between two updates of the shared Metrics
+    private static final int METRICS_BATCH = 4096;
+    private static final long NO_STEP_LIMIT = Long.MAX_VALUE;
+    private final LoxGlobalEnvironment globals = new LoxGlobalEnvironment();
+    private static final Upvalue[] NO_UPVALUES = new Upvalue[0];
+
+    // locals of every function, see FrameLayout; the running call's frame starts at base
+    Object[] stack = new Object[STACK_SIZE];
+    private int base;
+    private int top;
+    // upvalues of the running function, and the ones still pointing into the stack sorted by slot, highest first
+    private Upvalue[] upvalues = NO_UPVALUES;
+    private Upvalue openUpvalues;
+    // the callee and arguments of a tail call returned as TailCall.IN_FRAME, until its frame is pushed
+    LoxFunction tailFunction;
+    private Object[] tailArguments = new Object[8];
+    private final Map<Object, FunctionData> functions = new IdentityHashMap<>();
+    Jit jit;
+    // null unless a listener is installed, so running a node checks one field
+    private NodeListener[] listeners;
+    // caches of the pure functions, null unless memoization is on
+    private List<Memo> memos;
+    private Set<Function> pure = Set.of();
+    // null unless --profile is on
+    private Profiler profiler;
+    // counts not yet added to Metrics
+    private int statementsExecuted;
+    private long loxFunctionCalls;
+    private long nativeCalls;
+    private long upvaluesCaptured;
+    // steps a program may take, and the ones the running program has left; see safepoint()
+    private long stepLimit = NO_STEP_LIMIT;
+    private long steps;
+    // set by cancel() from any thread, cleared by reset()
+    private volatile boolean cancelled;
+    // value of the last executed return statement, read by LoxFunction
+    Object returnValue;
+
+    /** Compile hot functions to JVM bytecode, see {@link Jit}. */
+    public void enableJit() {
+        this.jit = new Jit(this, globals);
+    }
+
+    /**
+     * Calls the listener around every statement and expression from now on.
+     * Functions the JIT has compiled are not observed.
+     */
+    public void addListener(NodeListener listener) {
+        if (listeners == null) {
+            listeners = new NodeListener[] { listener };
+        } else {
+            listeners = Arrays.copyOf(listeners, listeners.length + 1);
+            listeners[listeners.length - 1] = listener;
+        }
+    }
+
+    /**
+     * Answers calls of pure functions, see {@link Purity}, from a cache of
+     * their earlier results when the arguments are numbers, strings, booleans
+     * or nil. Each program is analyzed on its own, so in the REPL a function
+     * can lose its purity through a later line without its cache being dropped.
+     */
+    public void enableMemoization() {
+        this.memos = new ArrayList<>();
+    }
+
+    /** Prints the hit rate of every memoized function. */
+    public void printMemoization(PrintStream out) {
+        out.println(String.format("memoize: %d pure functions", memos.size()));
+        out.println(String.format("  %10s %10s %7s %10s  %s", "calls", "hits", "rate", "evicted", "function"));
+        for (Memo memo : memos) {
+            long calls = memo.hits + memo.misses;
+            out.println(String.format("  %10d %10d %6.1f%% %10d  %s", calls, memo.hits,
+                    calls == 0 ? 0 : 100.0 * memo.hits / calls, memo.evictions, memo.name));
+        }
+    }
+
+    /**
+     * Stops every later program once it has taken the given number of steps,
+     * where a step is a loop iteration or a function call.
+     */
+    public void setStepLimit(long limit) {
+        this.stepLimit = limit;
+    }
+
+    /**
+     * Stops the running program at its next loop iteration or function call,
+     * or the next one started if none is running. Safe to call from any
+     * thread; it stays in effect until {@link #reset}.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /** Lets programs run again after cancel(); call it before whatever may cancel the next one. */
+    public void reset() {
+        cancelled = false;
+    }
+
+    /**
+     * Checked on every loop iteration and function call, also by compiled code.
+     * Throws {@link Interrupted} once the steps are used up or after cancel().
+     */
+    public void safepoint() {
+        if (--steps < 0 || cancelled) {
+            interrupt();
+        }
+    }
+
+    private void interrupt() {
+        if (cancelled) {
+            throw new Interrupted(Interrupted.Reason.CANCELLED, "execution cancelled");
+        }
+        throw new Interrupted(Interrupted.Reason.STEP_LIMIT,
+                String.format("step limit of %d exceeded", stepLimit));
+    }
 
-public class Interpreter implements Expression.Visitor<Object>, Statement.Visitor<Void> {
-    private Environment environment = new Environment(LoxGlobalEnvironment.Global);
+    /** Keeps the shadow stack the profiler samples, see {@link Profiler}. */
+    public void enableProfiler(Profiler profiler) {
+        this.profiler = profiler;
+    }
 
+    @Override
     public void interpret(List<Statement> statements) {
+        enter(0, FrameLayout.layout(statements));
+        if (memos != null) {
+            pure = Purity.pureFunctions(statements);
+        }
+        steps = stepLimit;
         try {
             for (Statement stmt : statements) {
                 execute(stmt);   
             }
         } catch (RuntimeError error) {
             ErrorHandler.runtimeError(error);
+        } finally {
+            flushMetrics();
         }
     }
 
     public Object interpret(Expression expression) {
+        enter(0, FrameLayout.layout(expression));
+        steps = stepLimit;
         try {
             return evaluate(expression);
         } catch (RuntimeError error) {
             ErrorHandler.runtimeError(error);
             return null;
+        } finally {
+            flushMetrics();
         }
     }
 
     // statements
 
     @Override
-    public Void visitExpr(Expr obj) {
+    public Completion visitExpr(Expr obj) {
         evaluate(obj.expr);
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitPrint(Print obj) {
+    public Completion visitPrint(Print obj) {
         Object value = evaluate(obj.expr);
-        System.out.println(stringify(value));
-        return null;
+        System.out.println(Utils.stringify(value));
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitVar(Var obj) {
-        environment.declare(obj.name);
-        if (obj.initializer != null) {
-            Object value = evaluate(obj.initializer);
-            environment.assign(obj.name, value);
+    public Completion visitVar(Var obj) {
+        if (obj.name.isGlobal()) {
+            Object value = obj.initializer == null ? null : evaluate(obj.initializer);
+            globals.define(obj.name, value);
+            return Completion.NORMAL;
         }
-        return null;
+        // a stack slot may still hold the value of an earlier block, so nil is stored too
+        Object value = obj.initializer == null ? null : evaluate(obj.initializer);
+        store(obj.name, value);
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitBlock(Block obj) {
-        executeBlock(obj.stmts, new Environment(this.environment));
-        return null;
+    public Completion visitBlock(Block obj) {
+        if (!obj.captured) {
+            return executeBlock(obj.stmts);
+        }
+        try {
+            return executeBlock(obj.stmts);
+        } finally {
+            closeUpvalues(base + obj.offset);
+        }
     }
 
     @Override
-    public Void visitIfElse(IfElse obj) {
-        if (isTruthy(evaluate(obj.condition))) {
-            execute(obj.thenBranch);
+    public Completion visitIfElse(IfElse obj) {
+        if (Utils.isTruthy(evaluate(obj.condition))) {
+            return execute(obj.thenBranch);
         } else if (obj.elseBranch != null) {
-            execute(obj.elseBranch);
+            return execute(obj.elseBranch);
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitWhile(While obj) {
-        while (isTruthy(evaluate(obj.codition))) {
-            try {
-                execute(obj.body);
-            } catch (BreakException e) {
+    public Completion visitWhile(While obj) {
+        while (Utils.isTruthy(evaluate(obj.codition))) {
+            safepoint();
+            Completion completion = execute(obj.body);
+            if (completion == Completion.BREAK) {
                 break;
-            } catch (ContinueException e) {
-                continue;
+            }
+            if (completion == Completion.RETURN) {
+                return completion;
             }
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitFor(For obj) {
+    public Completion visitFor(For obj) {
         if (obj.initializer != null) {
             execute(obj.initializer);
         }
-        while (isTruthy(evaluate(obj.condition))) {
-            try {
-                execute(obj.body);
-            } catch (BreakException e) {
+        while (Utils.isTruthy(evaluate(obj.condition))) {
+            safepoint();
+            Completion completion = execute(obj.body);
+            if (completion == Completion.BREAK) {
                 break;
-            } catch (ContinueException e) {
-                continue;
             }
+            if (completion == Completion.RETURN) {
+                return completion;
+            }
+            // continue falls through to the change clause
             if (obj.change != null) {
                 evaluate(obj.change);
             }
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitBreak(Break obj) {
-        throw new BreakException();
+    public Completion visitBreak(Break obj) {
+        return Completion.BREAK;
     }
 
     @Override
-    public Void visitContinue(Continue obj) {
-        throw new ContinueException();
+    public Completion visitContinue(Continue obj) {
+        return Completion.CONTINUE;
     }
 
     @Override
-    public Void visitFunction(Function obj) {
-        LoxFunction func = new LoxFunction(obj.name, obj.params, obj.stmts, environment);
-        environment.define(obj.name, func);
-        return null;
+    public Completion visitFunction(Function obj) {
+        FunctionData data = functionData(obj, obj.name, obj.params, obj.stmts, obj.frameSize, obj.upvalues, false);
+        LoxFunction func = new LoxFunction(this, data, captureUpvalues(data));
+        define(obj.name, func);
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitReturn(Return obj) {
+    public Completion visitReturn(Return obj) {
         Object value = null;
-        if (obj.expr != null)
+        if (obj.tailCall) {
+            value = tailCall((Call) obj.expr);
+        } else if (obj.expr != null) {
             value = evaluate(obj.expr);
-        throw new ReturnException(value);
+        }
+        returnValue = value;
+        return Completion.RETURN;
     }
 
     // expressions
     @Override
     public Object visitFunctionExpr(FunctionExpr obj) {
-        return new LoxFunction(obj.name, obj.params, obj.stmts, environment);
+        FunctionData data = functionData(obj, obj.name, obj.params, obj.stmts, obj.frameSize, obj.upvalues,
+                obj.name != null);
+        return new LoxFunction(this, data, captureUpvalues(data));
     }
 
     @Override
     public Object visitCall(Call obj) {
+        Native intrinsic = (Native) obj.intrinsic;
+        if (intrinsic != null && globals.isIntact(intrinsic)) {
+            return callIntrinsic(obj, intrinsic);
+        }
         Object callee = evaluate(obj.callee);
-        List<Object> arguments = new ArrayList<>();
-        for (Expression arg : obj.arguments) {
-            arguments.add(evaluate(arg));
+        if (profiler != null) {
+            return profiledCall(obj, callee);
+        }
+        if (callee instanceof LoxFunction) {
+            LoxFunction function = (LoxFunction) callee;
+            if (function.runsInFrame() && function.arity() == obj.arguments.size()) {
+                return function.run(pushArguments(obj, function.data));
+            }
+            Object[] arguments = evaluateArguments(obj);
+            return checkCall(obj, callee, arguments.length).call(Arrays.asList(arguments));
+        }
+        try {
+            return callWithoutList(obj, callee);
+        } catch (NativeError error) {
+            throw error.at(obj.paren);
+        }
+    }
+
+    // evaluates up to four arguments into locals and calls through the entry for their count
+    private Object callWithoutList(Call obj, Object callee) {
+        List<Expression> args = obj.arguments;
+        switch (args.size()) {
+            case 0:
+                return checkCall(obj, callee, 0).call0();
+            case 1: {
+                Object a = evaluate(args.get(0));
+                return checkCall(obj, callee, 1).call1(a);
+            }
+            case 2: {
+                Object a = evaluate(args.get(0));
+                Object b = evaluate(args.get(1));
+                return checkCall(obj, callee, 2).call2(a, b);
+            }
+            case 3: {
+                Object a = evaluate(args.get(0));
+                Object b = evaluate(args.get(1));
+                Object c = evaluate(args.get(2));
+                return checkCall(obj, callee, 3).call3(a, b, c);
+            }
+            case 4: {
+                Object a = evaluate(args.get(0));
+                Object b = evaluate(args.get(1));
+                Object c = evaluate(args.get(2));
+                Object d = evaluate(args.get(3));
+                return checkCall(obj, callee, 4).call4(a, b, c, d);
+            }
+            default:
+                Object[] arguments = evaluateArguments(obj);
+                return checkCall(obj, callee, arguments.length).call(arguments);
+        }
+    }
+
+    private Object profiledCall(Call obj, Object callee) {
+        Object[] arguments = evaluateArguments(obj);
+        LoxCallable function = checkCall(obj, callee, arguments.length);
+        profiler.push(profiledName(function), obj.paren.line);
+        try {
+            return function.call(arguments);
+        } catch (NativeError error) {
+            throw error.at(obj.paren);
+        } finally {
+            profiler.pop();
+        }
+    }
+
+    /**
+     * Reserves the callee's frame above the running one and evaluates the
+     * arguments straight into its parameter slots, so the call allocates
+     * nothing. Calls made by the arguments push their frames above it.
+     */
+    private int pushArguments(Call obj, FunctionData data) {
+        int frameBase = reserve(data.frameSize);
+        try {
+            for (int i = 0; i < data.parameters.size(); i++) {
+                // evaluated first: calls made by the argument may grow the stack into a new array
+                Object value = evaluate(obj.arguments.get(i));
+                stack[frameBase + data.parameters.get(i).stackSlot] = value;
+            }
+            safepoint();
+        } catch (RuntimeException e) {
+            release(frameBase);
+            throw e;
+        }
+        loxFunctionCalls++;
+        return frameBase;
+    }
+
+    // the callee is known, so the arguments go to it unboxed and without a list; as in an
+    // ordinary call every argument is evaluated before any is checked
+    private Object callIntrinsic(Call obj, Native function) {
+        nativeCalls++;
+        switch (obj.arguments.size()) {
+            case 0:
+                return function.apply0();
+            case 1:
+                return function.apply1(function.number(evaluate(obj.arguments.get(0)), obj.paren));
+            default:
+                Object x = evaluate(obj.arguments.get(0));
+                Object y = evaluate(obj.arguments.get(1));
+                return function.apply2(function.number(x, obj.paren), function.number(y, obj.paren));
+        }
+    }
+
+    private Object tailCall(Call obj) {
+        Native intrinsic = (Native) obj.intrinsic;
+        if (intrinsic != null && globals.isIntact(intrinsic)) {
+            return callIntrinsic(obj, intrinsic);
+        }
+        Object callee = evaluate(obj.callee);
+        if (callee instanceof LoxFunction) {
+            LoxFunction function = (LoxFunction) callee;
+            if (function.runsInFrame() && function.arity() == obj.arguments.size()) {
+                return tailCallInFrame(obj, function);
+            }
+        }
+        Object[] arguments = evaluateArguments(obj);
+        LoxCallable function = checkCall(obj, callee, arguments.length);
+        if (function instanceof LoxFunction) {
+            if (profiler != null) {
+                profiler.replace(profiledName(function), obj.paren.line);
+            }
+            return new TailCall((LoxFunction) function, Arrays.asList(arguments));
+        }
+        try {
+            return function.call(arguments);
+        } catch (NativeError error) {
+            throw error.at(obj.paren);
+        }
+    }
+
+    /**
+     * A tail call that allocates nothing. The arguments are evaluated into a
+     * frame as in pushArguments, then held in tailArguments while the
+     * caller's frame is popped; LoxFunction's trampoline pushes the callee's
+     * frame with pushTailArguments.
+     */
+    private Object tailCallInFrame(Call obj, LoxFunction function) {
+        FunctionData data = function.data;
+        int frameBase = pushArguments(obj, data);
+        int count = data.parameters.size();
+        if (count > tailArguments.length) {
+            tailArguments = new Object[count];
+        }
+        for (int i = 0; i < count; i++) {
+            tailArguments[i] = stack[frameBase + data.parameters.get(i).stackSlot];
         }
+        release(frameBase);
+        if (profiler != null) {
+            profiler.replace(function.name(), obj.paren.line);
+        }
+        tailFunction = function;
+        return TailCall.IN_FRAME;
+    }
+
+    private static String profiledName(LoxCallable function) {
+        return function instanceof LoxFunction ? ((LoxFunction) function).name() : "<native>";
+    }
+
+    private Object[] evaluateArguments(Call obj) {
+        Object[] arguments = new Object[obj.arguments.size()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = evaluate(obj.arguments.get(i));
+        }
+        return arguments;
+    }
+
+    // checks that the callee, called once its arguments are evaluated, takes that many
+    private LoxCallable checkCall(Call obj, Object callee, int count) {
         if (!(callee instanceof LoxCallable)) {
             throw new RuntimeError(obj.paren, "can only call functions and classes");
         }
         LoxCallable function = (LoxCallable) callee;
-        if (arguments.size() != function.arity()) {
+        if (count != function.arity()) {
             throw new RuntimeError(obj.paren,
-                    String.format("expected %d arguments but got %d", function.arity(), arguments.size()));
+                    String.format("expected %d arguments but got %d", function.arity(), count));
         }
-        return function.call(this, arguments);
+        if (function instanceof LoxFunction) {
+            loxFunctionCalls++;
+        } else {
+            nativeCalls++;
+        }
+        return function;
     }
 
     @Override
@@ -181,12 +516,12 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
         Object left = evaluate(obj.left);
         switch (obj.op.type) {
             case OR:
-                if (isTruthy(left)) {
+                if (Utils.isTruthy(left)) {
                     return left;
                 }
                 break;
             case AND:
-                if (!isTruthy(left)) {
+                if (!Utils.isTruthy(left)) {
                     return left;
                 }
             default:
@@ -227,52 +562,46 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
                 if (left instanceof Double && right instanceof Double) {
                     return (double) left + (double) right;
                 }
-                if (left instanceof String && right instanceof String) {
-                    return (String) left + (String) right;
-                }
-                if (left instanceof String) {
-                    return (String) left + stringify(right);
-                }
-                if (right instanceof String) {
-                    return stringify(left) + (String) right;
+                if (Utils.isString(left) || Utils.isString(right)) {
+                    return Rope.concat(left, right);
                 }
                 throw new RuntimeError(obj.op, "Invalid operand types");
             case GREATER:
                 if (left instanceof Double && right instanceof Double) {
                     return (double) left > (double) right;
                 }
-                if (left instanceof String && right instanceof String) {
-                    return Utils.compareStrings((String) left, (String) right) > 0;
+                if (Utils.isString(left) && Utils.isString(right)) {
+                    return Utils.compareStrings(left.toString(), right.toString()) > 0;
                 }
                 return false;
             case GREATER_EQUAL:
                 if (left instanceof Double && right instanceof Double) {
                     return (double) left >= (double) right;
                 }
-                if (left instanceof String && right instanceof String) {
-                    return Utils.compareStrings((String) left, (String) right) >= 0;
+                if (Utils.isString(left) && Utils.isString(right)) {
+                    return Utils.compareStrings(left.toString(), right.toString()) >= 0;
                 }
                 return false;
             case LESS:
                 if (left instanceof Double && right instanceof Double) {
                     return (double) left < (double) right;
                 }
-                if (left instanceof String && right instanceof String) {
-                    return Utils.compareStrings((String) left, (String) right) < 0;
+                if (Utils.isString(left) && Utils.isString(right)) {
+                    return Utils.compareStrings(left.toString(), right.toString()) < 0;
                 }
                 return false;
             case LESS_EQUAL:
                 if (left instanceof Double && right instanceof Double) {
                     return (double) left <= (double) right;
                 }
-                if (left instanceof String && right instanceof String) {
-                    return Utils.compareStrings((String) left, (String) right) <= 0;
+                if (Utils.isString(left) && Utils.isString(right)) {
+                    return Utils.compareStrings(left.toString(), right.toString()) <= 0;
                 }
                 return false;
             case BANG_EQUAL:
-                return !isEqual(left, right);
+                return !Utils.isEqual(left, right);
             case EQUAL_EQUAL:
-                return isEqual(left, right);
+                return Utils.isEqual(left, right);
             default:
                 break;
         }
@@ -289,7 +618,7 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
                 }
                 throw new RuntimeError(obj.op, "Invalid operand types");
             case BANG:
-                return !isTruthy(evaluated);
+                return !Utils.isTruthy(evaluated);
             default:
                 break;
         }
@@ -318,65 +647,252 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
     @Override
     public Object visitAssign(Assign obj) {
         Object value = evaluate(obj.value);
-        environment.assign(obj.name, value);
+        if (obj.name.isGlobal()) {
+            globals.assign(obj.name, value);
+        } else {
+            store(obj.name, value);
+        }
         return value;
     }
 
     @Override
     public Object visitVariable(Variable obj) {
-        return environment.get(obj.name);
+        if (obj.name.isGlobal()) {
+            return globals.get(obj.name);
+        }
+        return load(obj.name);
+    }
+
+    @Override
+    public Object visitArrayLiteral(ArrayLiteral obj) {
+        Object[] elements = new Object[obj.elements.size()];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = evaluate(obj.elements.get(i));
+        }
+        return LoxArray.of(elements);
+    }
+
+    @Override
+    public Object visitIndex(Index obj) {
+        Object array = evaluate(obj.array);
+        Object index = evaluate(obj.index);
+        LoxArray target = LoxArray.cast(array, obj.bracket);
+        return target.get(target.index(index, obj.bracket));
+    }
+
+    @Override
+    public Object visitIndexSet(IndexSet obj) {
+        Object array = evaluate(obj.array);
+        Object index = evaluate(obj.index);
+        Object value = evaluate(obj.value);
+        LoxArray target = LoxArray.cast(array, obj.bracket);
+        target.set(target.index(index, obj.bracket), value);
+        return value;
     }
 
     // helpers
-    private void execute(Statement stmt) {
-        Logger.trace(String.format("statement found: %s", new AstPrinter().print(stmt)));
-        stmt.accept(this);
+    private Completion execute(Statement stmt) {
+        if (++statementsExecuted == METRICS_BATCH) {
+            flushMetrics();
+        }
+        if (listeners == null) {
+            return stmt.accept(this);
+        }
+        for (NodeListener listener : listeners) {
+            listener.beforeStatement(stmt);
+        }
+        Completion completion = stmt.accept(this);
+        for (NodeListener listener : listeners) {
+            listener.afterStatement(stmt, completion);
+        }
+        return completion;
     }
 
     private Object evaluate(Expression expr) {
+        if (listeners == null) {
+            return expr.accept(this);
+        }
+        for (NodeListener listener : listeners) {
+            listener.beforeExpression(expr);
+        }
         Object value = expr.accept(this);
-        Logger.trace(String.format("%s evaluated to: %s", new AstPrinter().print(expr), stringify(value)));
+        for (NodeListener listener : listeners) {
+            listener.afterExpression(expr, value);
+        }
         return value;
     }
 
-    void executeBlock(List<Statement> stmts, Environment newEnv) {
-        Environment previous = this.environment;
-        try {
-            this.environment = newEnv;
-            for (Statement stmt : stmts) {
-                execute(stmt);
+    private void define(Token name, Object value) {
+        if (name.isGlobal()) {
+            globals.define(name, value);
+        } else {
+            store(name, value);
+        }
+    }
+
+    private Object load(Token name) {
+        if (name.stackSlot != Token.NOT_ON_STACK) {
+            return stack[base + name.stackSlot];
+        }
+        return upvalues[name.upvalue].get();
+    }
+
+    private void store(Token name, Object value) {
+        if (name.stackSlot != Token.NOT_ON_STACK) {
+            stack[base + name.stackSlot] = value;
+        } else {
+            upvalues[name.upvalue].set(value);
+        }
+    }
+
+    private Upvalue[] captureUpvalues(FunctionData data) {
+        int count = data.upvalues.length / 2;
+        if (count == 0) {
+            return NO_UPVALUES;
+        }
+        Upvalue[] captured = new Upvalue[count];
+        for (int i = 0; i < count; i++) {
+            boolean isLocal = data.upvalues[2 * i] == 1;
+            int index = data.upvalues[2 * i + 1];
+            captured[i] = isLocal ? captureUpvalue(base + index) : upvalues[index];
+        }
+        return captured;
+    }
+
+    private Upvalue captureUpvalue(int slot) {
+        Upvalue previous = null;
+        Upvalue upvalue = openUpvalues;
+        while (upvalue != null && upvalue.slot > slot) {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+        if (upvalue != null && upvalue.slot == slot) {
+            return upvalue;
+        }
+        Upvalue created = new Upvalue(this, slot, upvalue);
+        upvaluesCaptured++;
+        if (previous == null) {
+            openUpvalues = created;
+        } else {
+            previous.next = created;
+        }
+        return created;
+    }
+
+    private void closeUpvalues(int fromSlot) {
+        while (openUpvalues != null && openUpvalues.slot >= fromSlot) {
+            Upvalue upvalue = openUpvalues;
+            upvalue.closed = stack[upvalue.slot];
+            upvalue.slot = -1;
+            openUpvalues = upvalue.next;
+            upvalue.next = null;
+        }
+    }
+
+    private void flushMetrics() {
+        Metrics.statementsExecuted.add(statementsExecuted);
+        Metrics.loxFunctionCalls.add(loxFunctionCalls);
+        Metrics.nativeCalls.add(nativeCalls);
+        Metrics.upvaluesCaptured.add(upvaluesCaptured);
+        statementsExecuted = 0;
+        loxFunctionCalls = 0;
+        nativeCalls = 0;
+        upvaluesCaptured = 0;
+    }
+
+    // starts a frame of the given size at base, growing the stack if it does not fit
+    private void enter(int frameBase, int frameSize) {
+        base = frameBase;
+        top = frameBase + frameSize;
+        if (top > stack.length) {
+            stack = Arrays.copyOf(stack, Math.max(top, stack.length * 2));
+        }
+    }
+
+    private FunctionData functionData(Object declaration, Token name, List<Token> params, List<Statement> stmts,
+            int frameSize, int[] upvalues, boolean bindsSelf) {
+        FunctionData data = functions.get(declaration);
+        if (data == null) {
+            data = new FunctionData(name, params, stmts, frameSize, upvalues, bindsSelf);
+            if (pure.contains(declaration)) {
+                data.memo = new Memo(name.lexeme);
+                memos.add(data.memo);
             }
-        } finally {
-            this.environment = previous;
+            functions.put(declaration, data);
+        }
+        return data;
+    }
+
+    // takes the slots of a frame above the running one, growing the stack if they do not fit
+    private int reserve(int frameSize) {
+        int frameBase = top;
+        top = frameBase + frameSize;
+        if (top > stack.length) {
+            stack = Arrays.copyOf(stack, Math.max(top, stack.length * 2));
+        }
+        return frameBase;
+    }
+
+    // drops a frame taken by reserve, and the references it holds
+    private void release(int frameBase) {
+        Arrays.fill(stack, frameBase, top, null);
+        top = frameBase;
+    }
+
+    /** Reserves the frame of a call with its arguments in a list, see invoke(). */
+    int pushArguments(FunctionData data, List<Object> arguments) {
+        safepoint();
+        int frameBase = reserve(data.frameSize);
+        for (int i = 0; i < arguments.size(); i++) {
+            stack[frameBase + data.parameters.get(i).stackSlot] = arguments.get(i);
         }
+        return frameBase;
     }
 
-    private boolean isTruthy(Object obj) {
-        if (obj == null)
-            return false;
-        if (obj instanceof Boolean)
-            return (boolean) obj;
-        return true;
+    /** Reserves the frame of the tail call returned as TailCall.IN_FRAME, see tailCallInFrame. */
+    int pushTailArguments(FunctionData data) {
+        int frameBase = reserve(data.frameSize);
+        for (int i = 0; i < data.parameters.size(); i++) {
+            stack[frameBase + data.parameters.get(i).stackSlot] = tailArguments[i];
+            tailArguments[i] = null;
+        }
+        tailFunction = null;
+        return frameBase;
     }
 
-    private boolean isEqual(Object left, Object right) {
-        if (left == null && right == null)
-            return true;
-        if (left == null || right == null)
-            return false;
-        return left.equals(right);
+    /**
+     * Runs the body of a function once, in the frame reserved at frameBase
+     * that already holds the arguments. Upvalues still pointing into the frame
+     * are closed when it is popped.
+     */
+    Object invoke(LoxFunction function, FunctionData data, Upvalue[] captured, int frameBase) {
+        Upvalue[] callerUpvalues = upvalues;
+        int callerBase = base;
+        base = frameBase;
+        try {
+            upvalues = captured;
+            if (data.bindsSelf) {
+                store(data.name, function);
+            }
+            if (executeBlock(data.statements) == Completion.RETURN) {
+                return returnValue;
+            }
+            return null;
+        } finally {
+            closeUpvalues(frameBase);
+            upvalues = callerUpvalues;
+            base = callerBase;
+            release(frameBase);
+        }
     }
 
-    private String stringify(Object value) {
-        if (value == null)
-            return "nil";
-        if (value instanceof Double) {
-            String text = value.toString();
-            if (text.endsWith(".0")) {
-                text = text.substring(0, text.length() - 2);
+    private Completion executeBlock(List<Statement> stmts) {
+        for (Statement stmt : stmts) {
+            Completion completion = execute(stmt);
+            if (completion != Completion.NORMAL) {
+                return completion;
             }
-            return text;
         }
-        return value.toString();
+        return Completion.NORMAL;
     }
 }
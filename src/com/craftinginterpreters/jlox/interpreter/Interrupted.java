@@ -0,0 +1,19 @@
+package com.craftinginterpreters.jlox.interpreter;
+
+/**
+ * Thrown at a safepoint of the Interpreter when the program ran out of steps
+ * or was cancelled by the host, see {@link Interpreter#setStepLimit} and
+ * {@link Interpreter#cancel}.
+ */
+public class Interrupted extends RuntimeError {
+  public enum Reason {
+    STEP_LIMIT, CANCELLED
+  }
+
+  public final Reason reason;
+
+  public Interrupted(Reason reason, String message) {
+    super(null, message);
+    this.reason = reason;
+  }
+}
@@ -0,0 +1,218 @@
+package com.craftinginterpreters.jlox.interpreter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import com.craftinginterpreters.jlox.syntax.Token;
+
+/**
+ * The Lox array. While it holds only numbers the elements are kept unboxed
+ * in a double[], so engines with an unboxed path read and write them without
+ * allocating; the first store of anything else moves them to an Object[] for
+ * good. Both grow by doubling, so push is amortized constant time.
+ */
+public final class LoxArray {
+    private static final int MIN_CAPACITY = 4;
+    // the longest array the JVM will allocate
+    static final int MAX_LENGTH = Integer.MAX_VALUE - 8;
+
+    // the elements while every one is a number, null afterwards
+    private double[] numbers;
+    // the elements once the array held something other than a number
+    private Object[] values;
+    private int size;
+
+    private LoxArray(double[] numbers, int size) {
+        this.numbers = numbers;
+        this.size = size;
+    }
+
+    /** An array of the given elements, unboxed when they are all numbers. */
+    public static LoxArray of(Object[] elements) {
+        double[] numbers = new double[Math.max(elements.length, MIN_CAPACITY)];
+        for (int i = 0; i < elements.length; i++) {
+            if (!(elements[i] instanceof Double)) {
+                LoxArray array = new LoxArray(null, elements.length);
+                array.values = Arrays.copyOf(elements, Math.max(elements.length, MIN_CAPACITY));
+                return array;
+            }
+            numbers[i] = (double) elements[i];
+        }
+        return new LoxArray(numbers, elements.length);
+    }
+
+    /** An array of length zeros, at most MAX_LENGTH of them. */
+    static LoxArray zeros(int length) {
+        try {
+            return new LoxArray(new double[Math.max(length, MIN_CAPACITY)], length);
+        } catch (OutOfMemoryError e) {
+            throw tooLarge();
+        }
+    }
+
+    /** The value as an array; anything else is reported at the bracket. */
+    public static LoxArray cast(Object value, Token bracket) {
+        if (value instanceof LoxArray) {
+            return (LoxArray) value;
+        }
+        throw new RuntimeError(bracket, "can only index arrays");
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Whether the elements are still unboxed, so getDouble can read them. */
+    public boolean isNumeric() {
+        return numbers != null;
+    }
+
+    /** Checks an index into this array and returns it as an int. */
+    public int index(Object index, Token bracket) {
+        if (!(index instanceof Double)) {
+            throw new RuntimeError(bracket, "array index must be a number");
+        }
+        return index((double) index, bracket);
+    }
+
+    public int index(double index, Token bracket) {
+        if (!(index >= 0 && index < size)) {
+            throw new RuntimeError(bracket, String.format("array index %s out of bounds for length %d",
+                    Utils.stringify(index), size));
+        }
+        int i = (int) index;
+        if (i != index) {
+            throw new RuntimeError(bracket, "array index must be a whole number");
+        }
+        return i;
+    }
+
+    public Object get(int index) {
+        if (numbers != null) {
+            return numbers[index];
+        }
+        return values[index];
+    }
+
+    /** An element of a numeric array, see isNumeric. */
+    public double getDouble(int index) {
+        return numbers[index];
+    }
+
+    public void set(int index, Object value) {
+        if (numbers != null) {
+            if (value instanceof Double) {
+                numbers[index] = (double) value;
+                return;
+            }
+            promote();
+        }
+        values[index] = value;
+    }
+
+    public void setDouble(int index, double value) {
+        if (numbers != null) {
+            numbers[index] = value;
+        } else {
+            values[index] = value;
+        }
+    }
+
+    void push(Object value) {
+        if (numbers != null) {
+            if (value instanceof Double) {
+                if (size == numbers.length) {
+                    try {
+                        numbers = Arrays.copyOf(numbers, grownCapacity());
+                    } catch (OutOfMemoryError e) {
+                        throw tooLarge();
+                    }
+                }
+                numbers[size++] = (double) value;
+                return;
+            }
+            promote();
+        }
+        if (size == values.length) {
+            try {
+                values = Arrays.copyOf(values, grownCapacity());
+            } catch (OutOfMemoryError e) {
+                throw tooLarge();
+            }
+        }
+        values[size++] = value;
+    }
+
+    /** Sorts in place: numbers ascending, or strings in the order of the comparison operators. */
+    void sort() {
+        if (numbers != null) {
+            Arrays.sort(numbers, 0, size);
+            return;
+        }
+        boolean allNumbers = true;
+        boolean allStrings = true;
+        for (int i = 0; i < size; i++) {
+            allNumbers &= values[i] instanceof Double;
+            allStrings &= Utils.isString(values[i]);
+        }
+        if (allNumbers) {
+            Arrays.sort(values, 0, size, (l, r) -> Double.compare((double) l, (double) r));
+        } else if (allStrings) {
+            Arrays.sort(values, 0, size, (l, r) -> (int) Math.signum(Utils.compareStrings(l.toString(), r.toString())));
+        } else {
+            throw new NativeError("sort expects an array of numbers or of strings");
+        }
+    }
+
+    // twice the size, short of overflowing past MAX_LENGTH
+    private int grownCapacity() {
+        if (size >= MAX_LENGTH) {
+            throw tooLarge();
+        }
+        return (int) Math.min(2L * size, MAX_LENGTH);
+    }
+
+    static NativeError tooLarge() {
+        return new NativeError("array length too large");
+    }
+
+    // boxes the elements, after which the array can hold any value
+    private void promote() {
+        values = new Object[numbers.length];
+        for (int i = 0; i < size; i++) {
+            values[i] = numbers[i];
+        }
+        numbers = null;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        append(builder, Collections.newSetFromMap(new IdentityHashMap<>()));
+        return builder.toString();
+    }
+
+    // an array that contains itself is printed as [...] the second time
+    private void append(StringBuilder builder, Set<LoxArray> enclosing) {
+        if (!enclosing.add(this)) {
+            builder.append("[...]");
+            return;
+        }
+        builder.append('[');
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            Object element = get(i);
+            if (element instanceof LoxArray) {
+                ((LoxArray) element).append(builder, enclosing);
+            } else {
+                builder.append(Utils.stringify(element));
+            }
+        }
+        builder.append(']');
+        enclosing.remove(this);
+    }
+}
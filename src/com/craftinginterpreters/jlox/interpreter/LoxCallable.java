@@ -1,9 +1,55 @@
 package com.craftinginterpreters.jlox.interpreter;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
-interface LoxCallable {
-    Object call(Interpreter interpreter, List<Object> arguments);
+/**
+ * Something Lox code can call. Callers check the arity before calling. A
+ * call of up to four arguments goes through the entry for its count, so a
+ * callable that overrides them is called without an argument list; the
+ * defaults build one and go through {@link #call(List)}.
+ */
+public interface LoxCallable {
+    Object call(List<Object> arguments);
 
     int arity();
-}
\ No newline at end of file
+
+    default Object call0() {
+        return call(Collections.emptyList());
+    }
+
+    default Object call1(Object a) {
+        return call(Arrays.asList(a));
+    }
+
+    default Object call2(Object a, Object b) {
+        return call(Arrays.asList(a, b));
+    }
+
+    default Object call3(Object a, Object b, Object c) {
+        return call(Arrays.asList(a, b, c));
+    }
+
+    default Object call4(Object a, Object b, Object c, Object d) {
+        return call(Arrays.asList(a, b, c, d));
+    }
+
+    /** Calls with arguments of any count, through the entry for it when there is one. */
+    default Object call(Object[] arguments) {
+        switch (arguments.length) {
+            case 0:
+                return call0();
+            case 1:
+                return call1(arguments[0]);
+            case 2:
+                return call2(arguments[0], arguments[1]);
+            case 3:
+                return call3(arguments[0], arguments[1], arguments[2]);
+            case 4:
+                return call4(arguments[0], arguments[1], arguments[2], arguments[3]);
+            default:
+                return call(Arrays.asList(arguments));
+        }
+    }
+}
@@ -1,51 +1,131 @@
 package com.craftinginterpreters.jlox.interpreter;
 
+import java.util.ArrayList;
 import java.util.List;
 
-import com.craftinginterpreters.jlox.syntax.Statement;
-import com.craftinginterpreters.jlox.syntax.Token;
+import com.craftinginterpreters.jlox.jit.CompiledFunction;
 
 public class LoxFunction implements LoxCallable {
-    private final List<Statement> statements;
-    private final List<Token> parameters;
-    private final Token name;
-    private final Environment enclosing;
+    private final Interpreter interpreter;
+    final FunctionData data;
+    private final Upvalue[] upvalues;
     private final String nameStr;
 
-    LoxFunction(
-        Token name,
-        List<Token> parameters,
-        List<Statement> statements, 
-        Environment enclosing
-    ) {
-        this.name = name;
-        if (this.name != null) {
-            this.nameStr = this.name.lexeme;
+    LoxFunction(Interpreter interpreter, FunctionData data, Upvalue[] upvalues) {
+        this.interpreter = interpreter;
+        this.data = data;
+        if (data.name != null) {
+            this.nameStr = data.name.lexeme;
         } else {
             this.nameStr = "<anonymous>";
         }
-        this.parameters = parameters;
-        this.statements = statements;
-        this.enclosing = enclosing;
+        this.upvalues = upvalues;
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment env = new Environment(this.enclosing);
-        for (int i = 0; i < arguments.size(); i++) {
-            env.define(this.parameters.get(i), arguments.get(i));
+    public Object call(List<Object> arguments) {
+        return trampoline(this, arguments);
+    }
+
+    /**
+     * Whether the Interpreter may evaluate the arguments of a call straight
+     * into the frame and hand it to {@link #run(int)}: not when the arguments
+     * are a memo key or may be passed to a compiled body.
+     */
+    boolean runsInFrame() {
+        return data.memo == null && interpreter.jit == null;
+    }
+
+    /** Runs a call whose arguments the Interpreter stored in the frame it reserved at frameBase. */
+    Object run(int frameBase) {
+        Object result = interpreter.invoke(this, data, upvalues, frameBase);
+        if (!(result instanceof TailCall)) {
+            return result;
+        }
+        TailCall tailCall = (TailCall) result;
+        if (tailCall == TailCall.IN_FRAME) {
+            return trampoline(interpreter.tailFunction, null);
+        }
+        return trampoline(tailCall.function, tailCall.arguments);
+    }
+
+    /**
+     * Makes the call and the tail calls it ends in, looking up the memo of
+     * each. Null arguments stand for a call returned as TailCall.IN_FRAME,
+     * whose arguments the Interpreter holds.
+     */
+    private static Object trampoline(LoxFunction function, List<Object> arguments) {
+        // memoized calls still waiting for their result, which is that of the last tail call
+        List<TailCall> pending = null;
+        while (true) {
+            Object result;
+            if (arguments == null) {
+                result = function.invokeInFrame();
+            } else {
+                Memo memo = function.data.memo;
+                if (memo != null && Memo.cacheable(arguments)) {
+                    result = memo.get(arguments);
+                    if (result != Memo.MISSING) {
+                        return remember(pending, result);
+                    }
+                    if (pending == null) {
+                        pending = new ArrayList<>();
+                    }
+                    pending.add(new TailCall(function, arguments));
+                }
+                result = function.invoke(arguments);
+            }
+            if (!(result instanceof TailCall)) {
+                return remember(pending, result);
+            }
+            TailCall tailCall = (TailCall) result;
+            if (tailCall == TailCall.IN_FRAME) {
+                function = function.interpreter.tailFunction;
+                arguments = null;
+            } else {
+                function = tailCall.function;
+                arguments = tailCall.arguments;
+            }
+        }
+    }
+
+    private static Object remember(List<TailCall> pending, Object result) {
+        if (pending != null) {
+            for (TailCall call : pending) {
+                call.function.data.memo.put(call.arguments, result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Runs the body once; a tail call in it comes back as a {@link TailCall}.
+     * Every run is a step, so tail recursion counts towards the step limit too.
+     */
+    private Object invoke(List<Object> arguments) {
+        CompiledFunction compiled = data.compiled;
+        if (compiled == null && interpreter.jit != null) {
+            compiled = interpreter.jit.record(data);
         }
-        try {
-            interpreter.executeBlock(this.statements, env);
-        } catch(ReturnException exp) {
-            return exp.value;
+        if (compiled != null) {
+            interpreter.safepoint();
+            return compiled.invoke(this, upvalues, arguments);
         }
-        return null;
+        return interpreter.invoke(this, data, upvalues, interpreter.pushArguments(data, arguments));
+    }
+
+    // runs the body in the frame of a tail call returned as TailCall.IN_FRAME
+    private Object invokeInFrame() {
+        return interpreter.invoke(this, data, upvalues, interpreter.pushTailArguments(data));
+    }
+
+    String name() {
+        return nameStr;
     }
 
     @Override
     public int arity() {
-        return this.parameters.size();
+        return data.parameters.size();
     }
     
     @Override
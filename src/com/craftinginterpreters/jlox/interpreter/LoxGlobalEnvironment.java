@@ -1,27 +1,84 @@
 package com.craftinginterpreters.jlox.interpreter;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.craftinginterpreters.jlox.syntax.Token;
-import com.craftinginterpreters.jlox.syntax.TokenType;
 
 public class LoxGlobalEnvironment {
-    static Environment Global = new Environment();
+    // every native, and each one by its name
+    private static final List<Native> natives = new ArrayList<>();
+    private static final Map<String, Native> nativesByName = new HashMap<>();
+
     static {
-        Global.define(getGlobalToken("clock"), new LoxCallable() {
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                return (double)System.currentTimeMillis()/1000.0;
-            }
+        register(Native.nullary("clock", () -> (double) System.currentTimeMillis() / 1000.0));
+        register(Native.unary("sqrt", Math::sqrt));
+        register(Native.unary("abs", Math::abs));
+        register(Native.unary("floor", Math::floor));
+        register(Native.binary("min", Math::min));
+        register(Native.binary("max", Math::max));
+    }
+
+    private final Map<String, Object> values;
+    // natives whose global now holds another value
+    private final boolean[] redefined = new boolean[natives.size()];
+
+    public LoxGlobalEnvironment() {
+        this.values = new HashMap<>();
+        defineNatives();
+    }
+
+    private static void register(Native function) {
+        function.id = natives.size();
+        natives.add(function);
+        nativesByName.put(function.name, function);
+    }
+
+    /** The native a global of this name starts out as, or null. */
+    public static Native intrinsic(Token name) {
+        return nativesByName.get(name.lexeme);
+    }
+
+    /** Whether the global named after the native still holds it, so a call can go to it directly. */
+    public boolean isIntact(Native function) {
+        return !redefined[function.id];
+    }
+
+    public Object get(Token name) {
+        if (!values.containsKey(name.lexeme)) {
+            throw new RuntimeError(name, "trying to access undeclared variable");
+        }
+        return values.get(name.lexeme);
+    }
+
+    public void assign(Token name, Object value) {
+        if (!values.containsKey(name.lexeme)) {
+            throw new RuntimeError(name, "trying to assign undeclared variable");
+        }
+        values.put(name.lexeme, value);
+        track(name, value);
+    }
+
+    public void define(Token name, Object value) {
+        values.put(name.lexeme, value);
+        track(name, value);
+    }
 
-            @Override
-            public int arity() {
-               return 0;
-            }
-        });
+    private void track(Token name, Object value) {
+        Native function = intrinsic(name);
+        if (function != null) {
+            redefined[function.id] = value != function;
+        }
     }
 
-    static Token getGlobalToken(String name) {
-        return new Token(TokenType.IDENTIFIER, name, null, -1);
+    private void defineNatives() {
+        for (Native function : natives) {
+            values.put(function.name, function);
+        }
+        for (ArrayNative function : ArrayNative.ALL) {
+            values.put(function.name, function);
+        }
     }
-}
\ No newline at end of file
+}
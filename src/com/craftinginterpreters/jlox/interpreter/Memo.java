@@ -0,0 +1,62 @@
+package com.craftinginterpreters.jlox.interpreter;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.craftinginterpreters.jlox.Constants;
+
+/**
+ * Results of a pure function by argument list, keeping the
+ * Constants.MEMO_CAPACITY most recently used. Only calls whose arguments are
+ * all numbers, Strings, booleans or nil are cached, since other values may
+ * be functions that differ on every call and a {@link Rope} would have to
+ * be flattened to be hashed.
+ */
+class Memo {
+    static final Object MISSING = new Object();
+
+    final String name;
+    long hits;
+    long misses;
+    long evictions;
+    private final Map<List<Object>, Object> results = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<Object>, Object> eldest) {
+            if (size() > Constants.MEMO_CAPACITY) {
+                evictions++;
+                return true;
+            }
+            return false;
+        }
+    };
+
+    Memo(String name) {
+        this.name = name;
+    }
+
+    static boolean cacheable(List<Object> arguments) {
+        for (Object argument : arguments) {
+            if (argument != null && !(argument instanceof Double) && !(argument instanceof String)
+                    && !(argument instanceof Boolean)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** The cached result, or MISSING. */
+    Object get(List<Object> arguments) {
+        Object result = results.getOrDefault(arguments, MISSING);
+        if (result == MISSING) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return result;
+    }
+
+    void put(List<Object> arguments, Object result) {
+        results.put(arguments, result);
+    }
+}
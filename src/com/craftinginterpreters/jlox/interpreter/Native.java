@@ -0,0 +1,115 @@
+package com.craftinginterpreters.jlox.interpreter;
+
+import java.util.List;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleSupplier;
+import java.util.function.DoubleUnaryOperator;
+
+import com.craftinginterpreters.jlox.syntax.Token;
+
+/**
+ * A function implemented in Java and registered in
+ * {@link LoxGlobalEnvironment}. A native takes a fixed number of numbers and
+ * returns a number, so a call the Resolver recognized as an intrinsic (see
+ * {@code Expression.Call.intrinsic}) can run it through apply0, apply1 or
+ * apply2: no argument list, no arity check and, where the engine has an
+ * unboxed path, no boxed result.
+ */
+public final class Native implements LoxCallable {
+    public final String name;
+    // index in the registry, see LoxGlobalEnvironment.isIntact
+    int id;
+    private final int arity;
+    private final DoubleSupplier nullary;
+    private final DoubleUnaryOperator unary;
+    private final DoubleBinaryOperator binary;
+
+    private Native(String name, int arity, DoubleSupplier nullary, DoubleUnaryOperator unary,
+            DoubleBinaryOperator binary) {
+        this.name = name;
+        this.arity = arity;
+        this.nullary = nullary;
+        this.unary = unary;
+        this.binary = binary;
+    }
+
+    /** () -> number */
+    static Native nullary(String name, DoubleSupplier function) {
+        return new Native(name, 0, function, null, null);
+    }
+
+    /** number -> number */
+    static Native unary(String name, DoubleUnaryOperator function) {
+        return new Native(name, 1, null, function, null);
+    }
+
+    /** (number, number) -> number */
+    static Native binary(String name, DoubleBinaryOperator function) {
+        return new Native(name, 2, null, null, function);
+    }
+
+    public double apply0() {
+        return nullary.getAsDouble();
+    }
+
+    public double apply1(double x) {
+        return unary.applyAsDouble(x);
+    }
+
+    public double apply2(double x, double y) {
+        return binary.applyAsDouble(x, y);
+    }
+
+    /** An argument as a number; anything else is reported at the call. */
+    public double number(Object argument, Token paren) {
+        if (argument instanceof Double) {
+            return (double) argument;
+        }
+        throw new RuntimeError(paren, String.format("%s expects numbers", name));
+    }
+
+    // an argument of a call through LoxCallable, whose caller reports the error at its paren
+    private double number(Object argument) {
+        if (argument instanceof Double) {
+            return (double) argument;
+        }
+        throw new NativeError(String.format("%s expects numbers", name));
+    }
+
+    @Override
+    public Object call(List<Object> arguments) {
+        switch (arity) {
+            case 0:
+                return call0();
+            case 1:
+                return call1(arguments.get(0));
+            default:
+                return call2(arguments.get(0), arguments.get(1));
+        }
+    }
+
+    @Override
+    public Object call0() {
+        return apply0();
+    }
+
+    @Override
+    public Object call1(Object a) {
+        return apply1(number(a));
+    }
+
+    @Override
+    public Object call2(Object a, Object b) {
+        return apply2(number(a), number(b));
+    }
+
+    @Override
+    public int arity() {
+        return arity;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<native fn %s>", name);
+    }
+}
@@ -0,0 +1,20 @@
+package com.craftinginterpreters.jlox.interpreter;
+
+import com.craftinginterpreters.jlox.syntax.Token;
+
+/**
+ * Thrown by a native called through {@link LoxCallable} when an argument has
+ * the wrong type or is out of range. The native does not know where it was
+ * called from, so the call site catches this and reports it with {@link #at}
+ * at its paren.
+ */
+public class NativeError extends RuntimeException {
+  public NativeError(String message) {
+    super(message, null, false, false);
+  }
+
+  /** The error as a runtime error at the call. */
+  public RuntimeError at(Token paren) {
+    return new RuntimeError(paren, getMessage());
+  }
+}
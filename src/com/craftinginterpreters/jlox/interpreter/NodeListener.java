@@ -0,0 +1,24 @@
+package com.craftinginterpreters.jlox.interpreter;
+
+import com.craftinginterpreters.jlox.syntax.Expression;
+import com.craftinginterpreters.jlox.syntax.Statement;
+
+/**
+ * Observes the Interpreter as it runs each node, see
+ * {@link Interpreter#addListener(NodeListener)}. The Interpreter only checks
+ * for listeners once per node when none are installed, so instrumentation
+ * costs nothing until it is used.
+ */
+public interface NodeListener {
+    default void beforeStatement(Statement stmt) {
+    }
+
+    default void afterStatement(Statement stmt, Completion completion) {
+    }
+
+    default void beforeExpression(Expression expr) {
+    }
+
+    default void afterExpression(Expression expr, Object value) {
+    }
+}
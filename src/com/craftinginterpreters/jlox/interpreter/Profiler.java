@@ -0,0 +1,168 @@
+package com.craftinginterpreters.jlox.interpreter;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.craftinginterpreters.jlox.Constants;
+
+/**
+ * A sampling profiler for Lox code run by the {@link Interpreter}. The
+ * Interpreter keeps a shadow stack of the Lox calls in progress, one entry
+ * per call with the callee's name and the line of the call; a separate
+ * thread copies it every Constants.PROFILE_INTERVAL_MILLIS and counts the
+ * stacks it saw.
+ *
+ * The sampler reads the shadow stack without locking. Pushing and replacing
+ * write the entry before writing the volatile depth, and the sampler reads
+ * depth before the entries, so it sees every entry below the depth it read.
+ * A sample may miss a call that just started or ended, and one taken while
+ * an entry is being overwritten may pair its name with the line of the call
+ * it replaced, but it never sees an entry that was not written.
+ * Functions compiled by the JIT do not report the calls they make, so with
+ * --jit that time is counted for the compiled function.
+ */
+public class Profiler {
+    private static final String ROOT = "<script>";
+
+    private String[] names = new String[64];
+    private int[] lines = new int[64];
+    private volatile int depth;
+
+    // collapsed stack -> samples, and per function name the samples it was running or on the stack for
+    private final Map<String, Integer> stacks = new HashMap<>();
+    private final Map<String, Integer> self = new HashMap<>();
+    private final Map<String, Integer> total = new HashMap<>();
+    private int samples;
+    private volatile boolean running;
+    private Thread sampler;
+
+    // shadow stack, called by the interpreter thread
+
+    void push(String name, int line) {
+        int top = depth;
+        if (top == names.length) {
+            names = Arrays.copyOf(names, top * 2);
+            lines = Arrays.copyOf(lines, top * 2);
+        }
+        names[top] = name;
+        lines[top] = line;
+        depth = top + 1;
+    }
+
+    void pop() {
+        depth--;
+    }
+
+    /** A tail call replaces the running function without returning to its caller. */
+    void replace(String name, int line) {
+        int top = depth - 1;
+        if (top >= 0) {
+            names[top] = name;
+            lines[top] = line;
+            // publishes the new entry, see the class comment
+            depth = top + 1;
+        }
+    }
+
+    // sampling
+
+    /** Starts sampling, unless it already has. */
+    public void start() {
+        if (sampler != null) {
+            return;
+        }
+        running = true;
+        sampler = new Thread(this::run, "jlox-profiler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    public void stop() {
+        if (sampler == null) {
+            return;
+        }
+        running = false;
+        try {
+            sampler.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            sample();
+            try {
+                Thread.sleep(Constants.PROFILE_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void sample() {
+        // depth first: its volatile read makes the arrays and entries written before it visible
+        int depth = this.depth;
+        String[] names = this.names;
+        int[] lines = this.lines;
+        depth = Math.min(depth, Math.min(names.length, lines.length));
+        StringBuilder stack = new StringBuilder(ROOT);
+        Set<String> seen = new HashSet<>();
+        seen.add(ROOT);
+        String innermost = ROOT;
+        for (int i = 0; i < depth; i++) {
+            String name = names[i];
+            if (name == null) {
+                break;
+            }
+            stack.append(';').append(name).append(':').append(lines[i]);
+            seen.add(name);
+            innermost = name;
+        }
+        synchronized (this) {
+            samples++;
+            stacks.merge(stack.toString(), 1, Integer::sum);
+            self.merge(innermost, 1, Integer::sum);
+            for (String name : seen) {
+                total.merge(name, 1, Integer::sum);
+            }
+        }
+    }
+
+    // reports
+
+    /**
+     * Writes one line per distinct stack, frames separated by ';' and
+     * followed by the number of samples, as read by flame graph tools.
+     */
+    public synchronized void writeCollapsed(PrintStream out) {
+        for (Map.Entry<String, Integer> entry : stacks.entrySet()) {
+            out.println(entry.getKey() + " " + entry.getValue());
+        }
+    }
+
+    /** Prints the functions with the most samples of their own, with their share of all samples. */
+    public synchronized void printTop(PrintStream out, int count) {
+        List<String> functions = new ArrayList<>(total.keySet());
+        functions.sort((a, b) -> {
+            int bySelf = Integer.compare(self.getOrDefault(b, 0), self.getOrDefault(a, 0));
+            return bySelf != 0 ? bySelf : Integer.compare(total.get(b), total.get(a));
+        });
+        out.println(String.format("profile: %d samples every %d ms", samples, Constants.PROFILE_INTERVAL_MILLIS));
+        out.println(String.format("  %7s %7s  %s", "self", "total", "function"));
+        for (String function : functions.subList(0, Math.min(count, functions.size()))) {
+            out.println(String.format("  %6.1f%% %6.1f%%  %s",
+                    percent(self.getOrDefault(function, 0)), percent(total.get(function)), function));
+        }
+    }
+
+    private double percent(int count) {
+        return samples == 0 ? 0 : 100.0 * count / samples;
+    }
+}
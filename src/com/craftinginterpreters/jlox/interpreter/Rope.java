@@ -0,0 +1,96 @@
+package com.craftinginterpreters.jlox.interpreter;
+
+import com.craftinginterpreters.jlox.Constants;
+
+/**
+ * A Lox string built by concatenation. It is a prefix of a buffer that the
+ * next concatenation appends to in place, as long as no longer string has
+ * been built from the same prefix already; otherwise the prefix is copied.
+ * A loop like {@code s = s + x} then copies each character a constant number
+ * of times on average instead of once per iteration.
+ *
+ * The characters become a String when the value is printed, compared or
+ * tested for equality, and that String is kept. Shorter results than
+ * Constants.ROPE_MIN_LENGTH are plain Strings, so small strings cost nothing.
+ */
+public final class Rope implements CharSequence {
+    private final StringBuilder buffer;
+    private final int length;
+    private String flat;
+
+    private Rope(StringBuilder buffer, int length) {
+        this.buffer = buffer;
+        this.length = length;
+    }
+
+    /** The Lox value of left + right, where at least one of them is a string. */
+    public static Object concat(Object left, Object right) {
+        CharSequence tail = chars(right);
+        if (left instanceof Rope) {
+            return ((Rope) left).append(tail);
+        }
+        CharSequence head = chars(left);
+        int length = head.length() + tail.length();
+        if (length < Constants.ROPE_MIN_LENGTH) {
+            return head.toString().concat(tail.toString());
+        }
+        StringBuilder buffer = new StringBuilder(length * 2);
+        buffer.append(head).append(tail);
+        return new Rope(buffer, length);
+    }
+
+    private static CharSequence chars(Object value) {
+        if (value instanceof Rope) {
+            // a flat copy, since the rope may share the buffer it is appended to
+            return value.toString();
+        }
+        return value instanceof String ? (String) value : Utils.stringify(value);
+    }
+
+    private Rope append(CharSequence tail) {
+        int extended = length + tail.length();
+        if (buffer.length() == length) {
+            buffer.append(tail);
+            return new Rope(buffer, extended);
+        }
+        StringBuilder copy = new StringBuilder(extended * 2);
+        copy.append(buffer, 0, length).append(tail);
+        return new Rope(copy, extended);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index >= length) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return buffer.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        if (flat == null) {
+            flat = buffer.substring(0, length);
+        }
+        return flat;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Rope && toString().equals(other.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+}
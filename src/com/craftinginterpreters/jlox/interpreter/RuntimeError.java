@@ -5,7 +5,7 @@ import com.craftinginterpreters.jlox.syntax.Token;
 public class RuntimeError extends RuntimeException {
   public final Token token;
 
-  RuntimeError(Token token, String message) {
+  public RuntimeError(Token token, String message) {
     super(message);
     this.token = token;
   }
@@ -0,0 +1,24 @@
+package com.craftinginterpreters.jlox.interpreter;
+
+import java.util.List;
+
+/**
+ * Returned in place of a value by a function whose return statement is a
+ * call to another Lox function. {@link LoxFunction#call} then makes that call
+ * itself, so tail calls do not grow the Java stack. Never visible to Lox code.
+ */
+public final class TailCall {
+    /**
+     * A tail call whose callee and arguments the Interpreter holds itself, so
+     * the call allocates nothing; see Interpreter.tailCallInFrame.
+     */
+    static final TailCall IN_FRAME = new TailCall(null, null);
+
+    final LoxFunction function;
+    final List<Object> arguments;
+
+    public TailCall(LoxFunction function, List<Object> arguments) {
+        this.function = function;
+        this.arguments = arguments;
+    }
+}
@@ -0,0 +1,21 @@
+package com.craftinginterpreters.jlox.interpreter;
+
+import com.craftinginterpreters.jlox.syntax.Expression;
+import com.craftinginterpreters.jlox.syntax.Statement;
+import com.craftinginterpreters.jlox.tools.AstPrinter;
+import com.craftinginterpreters.jlox.tools.Logger;
+
+/** Logs every statement run and every expression evaluated, for --trace. */
+public class TraceListener implements NodeListener {
+    private final AstPrinter printer = new AstPrinter();
+
+    @Override
+    public void beforeStatement(Statement stmt) {
+        Logger.trace(String.format("statement found: %s", printer.print(stmt)));
+    }
+
+    @Override
+    public void afterExpression(Expression expr, Object value) {
+        Logger.trace(String.format("%s evaluated to: %s", printer.print(expr), Utils.stringify(value)));
+    }
+}
@@ -0,0 +1,31 @@
+package com.craftinginterpreters.jlox.interpreter;
+
+/**
+ * A variable captured by a closure. While the declaring frame is live the
+ * value stays in the Interpreter's stack at {@code slot}; once the scope ends
+ * the value is moved into {@code closed} and {@code slot} becomes -1.
+ */
+public final class Upvalue {
+    private final Interpreter interpreter;
+    int slot;
+    Object closed;
+    Upvalue next;
+
+    Upvalue(Interpreter interpreter, int slot, Upvalue next) {
+        this.interpreter = interpreter;
+        this.slot = slot;
+        this.next = next;
+    }
+
+    public Object get() {
+        return slot >= 0 ? interpreter.stack[slot] : closed;
+    }
+
+    public void set(Object value) {
+        if (slot >= 0) {
+            interpreter.stack[slot] = value;
+        } else {
+            closed = value;
+        }
+    }
+}
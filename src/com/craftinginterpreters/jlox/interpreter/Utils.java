@@ -16,4 +16,41 @@ public class Utils {
         }
         return left.length() - right.length();
     }
-}
\ No newline at end of file
+
+    /** Whether the value is a Lox string, which is either a String or a {@link Rope}. */
+    public static boolean isString(Object obj) {
+        return obj instanceof String || obj instanceof Rope;
+    }
+
+    public static boolean isTruthy(Object obj) {
+        if (obj == null)
+            return false;
+        if (obj instanceof Boolean)
+            return (boolean) obj;
+        return true;
+    }
+
+    public static boolean isEqual(Object left, Object right) {
+        // also covers equal string literals, which the scanner interns
+        if (left == right)
+            return true;
+        if (left == null || right == null)
+            return false;
+        if (left instanceof Rope || right instanceof Rope)
+            return isString(left) && isString(right) && left.toString().equals(right.toString());
+        return left.equals(right);
+    }
+
+    public static String stringify(Object value) {
+        if (value == null)
+            return "nil";
+        if (value instanceof Double) {
+            String text = value.toString();
+            if (text.endsWith(".0")) {
+                text = text.substring(0, text.length() - 2);
+            }
+            return text;
+        }
+        return value.toString();
+    }
+}
@@ -0,0 +1,14 @@
+package com.craftinginterpreters.jlox.jit;
+
+import java.util.List;
+
+import com.craftinginterpreters.jlox.interpreter.Upvalue;
+
+/**
+ * Body of a Lox function compiled to JVM bytecode by the {@link JitCompiler}.
+ * One instance is shared by every closure created from the same declaration,
+ * so the closure and the variables it captured are passed on each call.
+ */
+public interface CompiledFunction {
+    Object invoke(Object self, Upvalue[] upvalues, List<Object> arguments);
+}
@@ -0,0 +1,56 @@
+package com.craftinginterpreters.jlox.jit;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import com.craftinginterpreters.jlox.Constants;
+import com.craftinginterpreters.jlox.interpreter.FunctionData;
+import com.craftinginterpreters.jlox.interpreter.Interpreter;
+import com.craftinginterpreters.jlox.interpreter.LoxGlobalEnvironment;
+import com.craftinginterpreters.jlox.tools.Logger;
+
+/**
+ * Compiles functions of the tree-walking Interpreter to JVM bytecode once they
+ * have been called {@link Constants#JIT_THRESHOLD} times. The generated classes
+ * are defined as hidden classes, so they can be unloaded together with the
+ * function they belong to.
+ */
+public class Jit {
+    private static final String CLASS_NAME = "com/craftinginterpreters/jlox/jit/CompiledLoxFunction";
+
+    private final Interpreter interpreter;
+    private final LoxGlobalEnvironment globals;
+    private final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+    public Jit(Interpreter interpreter, LoxGlobalEnvironment globals) {
+        this.interpreter = interpreter;
+        this.globals = globals;
+    }
+
+    /**
+     * Counts a call of an interpreted function.
+     * @return the compiled body once the function is hot, otherwise null
+     */
+    public CompiledFunction record(FunctionData function) {
+        if (function.jitFailed || ++function.calls < Constants.JIT_THRESHOLD) {
+            return null;
+        }
+        String name = function.name == null ? "<anonymous>" : function.name.lexeme;
+        try {
+            JitCompiler compiler = new JitCompiler(CLASS_NAME, interpreter, globals);
+            byte[] bytes = compiler.compile(function);
+            MethodHandles.Lookup hidden = lookup.defineHiddenClass(bytes, true);
+            function.compiled = (CompiledFunction) hidden
+                    .findConstructor(hidden.lookupClass(), MethodType.methodType(void.class, Object[].class))
+                    .invoke(compiler.constants());
+            Logger.debug(String.format("jit: compiled %s (%d bytes)", name, bytes.length));
+        } catch (JitCompiler.Unsupported e) {
+            function.jitFailed = true;
+            Logger.debug(String.format("jit: not compiling %s: %s", name, e.getMessage()));
+        } catch (Throwable e) {
+            function.jitFailed = true;
+            Logger.warn(String.format("jit: failed to compile %s: %s", name, e));
+        }
+        return function.compiled;
+    }
+}
@@ -0,0 +1,634 @@
+package com.craftinginterpreters.jlox.jit;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.craftinginterpreters.jlox.interpreter.FunctionData;
+import com.craftinginterpreters.jlox.interpreter.Interpreter;
+import com.craftinginterpreters.jlox.interpreter.LoxGlobalEnvironment;
+import com.craftinginterpreters.jlox.syntax.Expression;
+import com.craftinginterpreters.jlox.syntax.Expression.ArrayLiteral;
+import com.craftinginterpreters.jlox.syntax.Expression.Assign;
+import com.craftinginterpreters.jlox.syntax.Expression.Binary;
+import com.craftinginterpreters.jlox.syntax.Expression.Call;
+import com.craftinginterpreters.jlox.syntax.Expression.CommaSeperated;
+import com.craftinginterpreters.jlox.syntax.Expression.FunctionExpr;
+import com.craftinginterpreters.jlox.syntax.Expression.Grouping;
+import com.craftinginterpreters.jlox.syntax.Expression.Index;
+import com.craftinginterpreters.jlox.syntax.Expression.IndexSet;
+import com.craftinginterpreters.jlox.syntax.Expression.Literal;
+import com.craftinginterpreters.jlox.syntax.Expression.Logical;
+import com.craftinginterpreters.jlox.syntax.Expression.Unary;
+import com.craftinginterpreters.jlox.syntax.Expression.Variable;
+import com.craftinginterpreters.jlox.syntax.Statement;
+import com.craftinginterpreters.jlox.syntax.Statement.Block;
+import com.craftinginterpreters.jlox.syntax.Statement.Break;
+import com.craftinginterpreters.jlox.syntax.Statement.Continue;
+import com.craftinginterpreters.jlox.syntax.Statement.Expr;
+import com.craftinginterpreters.jlox.syntax.Statement.For;
+import com.craftinginterpreters.jlox.syntax.Statement.Function;
+import com.craftinginterpreters.jlox.syntax.Statement.IfElse;
+import com.craftinginterpreters.jlox.syntax.Statement.Print;
+import com.craftinginterpreters.jlox.syntax.Statement.Return;
+import com.craftinginterpreters.jlox.syntax.Statement.Var;
+import com.craftinginterpreters.jlox.syntax.Statement.While;
+import com.craftinginterpreters.jlox.syntax.Token;
+
+import static com.craftinginterpreters.jlox.jit.MethodWriter.*;
+
+/**
+ * Translates the body of one Lox function into a class implementing
+ * {@link CompiledFunction}. Every local of the function lives in a JVM local,
+ * which is only sound because bodies that create closures are rejected: none of
+ * their locals can be captured. Variables of enclosing functions and globals go
+ * through {@link JitRuntime}, as do all operators.
+ *
+ * Anything the compiler does not handle throws {@link Unsupported} and the
+ * function keeps running in the Interpreter.
+ */
+class JitCompiler implements Expression.Visitor<Void>, Statement.Visitor<Void> {
+    static class Unsupported extends RuntimeException {
+        Unsupported(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private static final String OBJECT = "java/lang/Object";
+    private static final String OBJECT_DESC = "Ljava/lang/Object;";
+    private static final String TOKEN_DESC = "Lcom/craftinginterpreters/jlox/syntax/Token;";
+    private static final String TOKEN = "com/craftinginterpreters/jlox/syntax/Token";
+    private static final String UPVALUES_DESC = "[Lcom/craftinginterpreters/jlox/interpreter/Upvalue;";
+    private static final String GLOBALS = "com/craftinginterpreters/jlox/interpreter/LoxGlobalEnvironment";
+    private static final String GLOBALS_DESC = "L" + GLOBALS + ";";
+    private static final String INTERPRETER = "com/craftinginterpreters/jlox/interpreter/Interpreter";
+    private static final String NATIVE = "com/craftinginterpreters/jlox/interpreter/Native";
+    private static final String NATIVE_DESC = "L" + NATIVE + ";";
+    // only generated code calls JitRuntime; naming it by its class literal makes javac build it with Lox.java
+    private static final String RUNTIME = JitRuntime.class.getName().replace('.', '/');
+    private static final String INVOKE_DESC = "(" + OBJECT_DESC + UPVALUES_DESC + "Ljava/util/List;)" + OBJECT_DESC;
+    private static final String BINARY_DESC = "(" + OBJECT_DESC + OBJECT_DESC + TOKEN_DESC + ")" + OBJECT_DESC;
+    private static final String UNARY_DESC = "(" + OBJECT_DESC + TOKEN_DESC + ")" + OBJECT_DESC;
+
+    // JVM locals of invoke(self, upvalues, arguments)
+    private static final int THIS = 0;
+    private static final int SELF = 1;
+    private static final int UPVALUES = 2;
+    private static final int ARGUMENTS = 3;
+    private static final int FIRST_LOCAL = 4;
+    // aload/astore without the wide prefix
+    private static final int MAX_LOCALS = 256;
+    // jump offsets are signed 16 bit
+    private static final int MAX_CODE = Short.MAX_VALUE;
+
+    private static class Scope {
+        final Map<Integer, Integer> locals = new HashMap<>();
+        final int firstLocal;
+
+        Scope(int firstLocal) {
+            this.firstLocal = firstLocal;
+        }
+    }
+
+    private static class Loop {
+        final Label breakLabel;
+        final Label continueLabel;
+        final Loop enclosing;
+
+        Loop(Label breakLabel, Label continueLabel, Loop enclosing) {
+            this.breakLabel = breakLabel;
+            this.continueLabel = continueLabel;
+            this.enclosing = enclosing;
+        }
+    }
+
+    private final String className;
+    private final Interpreter interpreter;
+    private final LoxGlobalEnvironment globals;
+    private final ClassWriter classWriter;
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+    private final List<Scope> scopes = new ArrayList<>();
+    private MethodWriter code;
+    private int nextLocal = FIRST_LOCAL;
+    private Loop loop;
+
+    JitCompiler(String className, Interpreter interpreter, LoxGlobalEnvironment globals) {
+        this.className = className;
+        this.interpreter = interpreter;
+        this.globals = globals;
+        this.classWriter = new ClassWriter(className, OBJECT,
+                "com/craftinginterpreters/jlox/jit/CompiledFunction");
+    }
+
+    /** Values the generated code loads by index; passed to its constructor. */
+    Object[] constants() {
+        return constants.toArray();
+    }
+
+    byte[] compile(FunctionData function) {
+        classWriter.field(ClassWriter.ACC_PRIVATE | ClassWriter.ACC_FINAL, "k", "[" + OBJECT_DESC);
+        emitConstructor();
+
+        code = classWriter.method(ClassWriter.ACC_PUBLIC, "invoke", INVOKE_DESC);
+        code.maxLocals = FIRST_LOCAL;
+        beginScope();
+        if (function.bindsSelf) {
+            code.load(SELF);
+            code.store(declareLocal(function.name));
+        }
+        int listGet = classWriter.interfaceMethodRef("java/util/List", "get", "(I)" + OBJECT_DESC);
+        for (int i = 0; i < function.parameters.size(); i++) {
+            code.load(ARGUMENTS);
+            code.pushInt(i);
+            code.invokeInterface(listGet, 1, -1);
+            code.store(declareLocal(function.parameters.get(i)));
+        }
+        for (Statement stmt : function.statements) {
+            compile(stmt);
+        }
+        code.op(ACONST_NULL, 1);
+        code.op(ARETURN, -1);
+        endScope();
+
+        if (code.length() > MAX_CODE) {
+            throw new Unsupported("body too large");
+        }
+        return classWriter.toByteArray();
+    }
+
+    private void emitConstructor() {
+        MethodWriter init = classWriter.method(ClassWriter.ACC_PUBLIC, "<init>", "([" + OBJECT_DESC + ")V");
+        init.load(0);
+        init.op2(INVOKESPECIAL, classWriter.methodRef(OBJECT, "<init>", "()V"), -1);
+        init.load(0);
+        init.load(1);
+        init.op2(PUTFIELD, classWriter.fieldRef(className, "k", "[" + OBJECT_DESC), -2);
+        init.op(RETURN, 0);
+        init.maxLocals = 2;
+    }
+
+    // statements
+
+    @Override
+    public Void visitExpr(Expr obj) {
+        compile(obj.expr);
+        code.op(POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitPrint(Print obj) {
+        compile(obj.expr);
+        invokeRuntime("print", "(" + OBJECT_DESC + ")V");
+        return null;
+    }
+
+    @Override
+    public Void visitVar(Var obj) {
+        if (obj.initializer != null) {
+            compile(obj.initializer);
+        } else {
+            code.op(ACONST_NULL, 1);
+        }
+        code.store(declareLocal(obj.name));
+        return null;
+    }
+
+    @Override
+    public Void visitBlock(Block obj) {
+        beginScope();
+        for (Statement stmt : obj.stmts) {
+            compile(stmt);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitIfElse(IfElse obj) {
+        Label elseLabel = new Label();
+        Label end = new Label();
+        condition(obj.condition, elseLabel);
+        branch(obj.thenBranch);
+        code.jump(GOTO, end);
+        code.mark(elseLabel);
+        if (obj.elseBranch != null) {
+            branch(obj.elseBranch);
+        }
+        code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitWhile(While obj) {
+        Label start = new Label();
+        Label end = new Label();
+        code.mark(start);
+        condition(obj.codition, end);
+        safepoint();
+        loop = new Loop(end, start, loop);
+        branch(obj.body);
+        loop = loop.enclosing;
+        code.jump(GOTO, start);
+        code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitFor(For obj) {
+        if (obj.initializer != null) {
+            compile(obj.initializer);
+        }
+        Label start = new Label();
+        Label change = new Label();
+        Label end = new Label();
+        code.mark(start);
+        if (obj.condition != null) {
+            condition(obj.condition, end);
+        }
+        safepoint();
+        loop = new Loop(end, change, loop);
+        branch(obj.body);
+        loop = loop.enclosing;
+        code.mark(change);
+        if (obj.change != null) {
+            compile(obj.change);
+            code.op(POP, -1);
+        }
+        code.jump(GOTO, start);
+        code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitBreak(Break obj) {
+        code.jump(GOTO, loop.breakLabel);
+        return null;
+    }
+
+    @Override
+    public Void visitContinue(Continue obj) {
+        code.jump(GOTO, loop.continueLabel);
+        return null;
+    }
+
+    @Override
+    public Void visitFunction(Function obj) {
+        throw new Unsupported("creates a closure");
+    }
+
+    @Override
+    public Void visitReturn(Return obj) {
+        if (obj.tailCall) {
+            call((Call) obj.expr, "tailCall");
+        } else if (obj.expr != null) {
+            compile(obj.expr);
+        } else {
+            code.op(ACONST_NULL, 1);
+        }
+        code.op(ARETURN, -1);
+        return null;
+    }
+
+    // expressions
+
+    @Override
+    public Void visitFunctionExpr(FunctionExpr obj) {
+        throw new Unsupported("creates a closure");
+    }
+
+    @Override
+    public Void visitCall(Call obj) {
+        call(obj, "call");
+        return null;
+    }
+
+    private void call(Call obj, String helper) {
+        if (obj.intrinsic != null) {
+            intrinsic(obj, helper);
+            return;
+        }
+        genericCall(obj, helper);
+    }
+
+    private void genericCall(Call obj, String helper) {
+        compile(obj.callee);
+        code.pushInt(obj.arguments.size());
+        code.op2(ANEWARRAY, classWriter.classRef(OBJECT), 0);
+        for (int i = 0; i < obj.arguments.size(); i++) {
+            code.op(DUP, 1);
+            code.pushInt(i);
+            compile(obj.arguments.get(i));
+            code.op(AASTORE, -3);
+        }
+        constant(obj.paren, TOKEN);
+        invokeRuntime(helper, "(" + OBJECT_DESC + "[" + OBJECT_DESC + TOKEN_DESC + ")" + OBJECT_DESC);
+    }
+
+    /**
+     * A native is called with its arguments on the operand stack, see
+     * JitRuntime.intrinsic1. Whether its global still holds it is checked
+     * before the arguments run, as in the other engines, so an argument that
+     * reassigns the global does not change which function this call reaches.
+     */
+    private void intrinsic(Call obj, String helper) {
+        Label generic = new Label();
+        Label end = new Label();
+        int depth = code.depth();
+        constant(obj.intrinsic, NATIVE);
+        constant(globals, GLOBALS);
+        invokeRuntime("isIntact", "(" + NATIVE_DESC + GLOBALS_DESC + ")Z");
+        code.jump(IFEQ, generic);
+        String descriptor = "";
+        for (Expression argument : obj.arguments) {
+            compile(argument);
+            descriptor += OBJECT_DESC;
+        }
+        constant(obj.intrinsic, NATIVE);
+        constant(obj.paren, TOKEN);
+        invokeRuntime("intrinsic" + obj.arguments.size(), "(" + descriptor + NATIVE_DESC + TOKEN_DESC + ")" + OBJECT_DESC);
+        code.jump(GOTO, end);
+        code.mark(generic);
+        code.setDepth(depth);
+        genericCall(obj, helper);
+        code.mark(end);
+    }
+
+    @Override
+    public Void visitArrayLiteral(ArrayLiteral obj) {
+        code.pushInt(obj.elements.size());
+        code.op2(ANEWARRAY, classWriter.classRef(OBJECT), 0);
+        for (int i = 0; i < obj.elements.size(); i++) {
+            code.op(DUP, 1);
+            code.pushInt(i);
+            compile(obj.elements.get(i));
+            code.op(AASTORE, -3);
+        }
+        invokeRuntime("array", "([" + OBJECT_DESC + ")" + OBJECT_DESC);
+        return null;
+    }
+
+    @Override
+    public Void visitIndex(Index obj) {
+        compile(obj.array);
+        compile(obj.index);
+        constant(obj.bracket, TOKEN);
+        invokeRuntime("getIndex", BINARY_DESC);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexSet(IndexSet obj) {
+        compile(obj.array);
+        compile(obj.index);
+        compile(obj.value);
+        constant(obj.bracket, TOKEN);
+        invokeRuntime("setIndex", "(" + OBJECT_DESC + OBJECT_DESC + OBJECT_DESC + TOKEN_DESC + ")" + OBJECT_DESC);
+        return null;
+    }
+
+    @Override
+    public Void visitLogical(Logical obj) {
+        Label end = new Label();
+        compile(obj.left);
+        code.op(DUP, 1);
+        invokeRuntime("isTruthy", "(" + OBJECT_DESC + ")Z");
+        switch (obj.op.type) {
+            case OR:
+                code.jump(IFNE, end);
+                break;
+            case AND:
+                code.jump(IFEQ, end);
+                break;
+            default:
+                throw new Unsupported("logical operator " + obj.op.lexeme);
+        }
+        code.op(POP, -1);
+        compile(obj.right);
+        code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitBinary(Binary obj) {
+        String helper;
+        switch (obj.op.type) {
+            case PLUS: helper = "add"; break;
+            case MINUS: helper = "subtract"; break;
+            case STAR: helper = "multiply"; break;
+            case SLASH: helper = "divide"; break;
+            case STAR_STAR: helper = "power"; break;
+            case GREATER: helper = "greater"; break;
+            case GREATER_EQUAL: helper = "greaterEqual"; break;
+            case LESS: helper = "less"; break;
+            case LESS_EQUAL: helper = "lessEqual"; break;
+            case EQUAL_EQUAL: helper = "equal"; break;
+            case BANG_EQUAL: helper = "notEqual"; break;
+            default:
+                throw new Unsupported("binary operator " + obj.op.lexeme);
+        }
+        compile(obj.left);
+        compile(obj.right);
+        constant(obj.op, TOKEN);
+        invokeRuntime(helper, BINARY_DESC);
+        return null;
+    }
+
+    @Override
+    public Void visitUnary(Unary obj) {
+        String helper;
+        switch (obj.op.type) {
+            case MINUS: helper = "negate"; break;
+            case BANG: helper = "not"; break;
+            default:
+                throw new Unsupported("unary operator " + obj.op.lexeme);
+        }
+        compile(obj.expr);
+        constant(obj.op, TOKEN);
+        invokeRuntime(helper, UNARY_DESC);
+        return null;
+    }
+
+    @Override
+    public Void visitGrouping(Grouping obj) {
+        compile(obj.expr);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteral(Literal obj) {
+        if (obj.value == null) {
+            code.op(ACONST_NULL, 1);
+        } else if (obj.value instanceof Boolean) {
+            String field = (Boolean) obj.value ? "TRUE" : "FALSE";
+            code.op2(GETSTATIC, classWriter.fieldRef("java/lang/Boolean", field, "Ljava/lang/Boolean;"), 1);
+        } else {
+            constant(obj.value, null);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCommaSeperated(CommaSeperated obj) {
+        if (obj.expressions.isEmpty()) {
+            code.op(ACONST_NULL, 1);
+            return null;
+        }
+        for (int i = 0; i < obj.expressions.size(); i++) {
+            if (i > 0) {
+                code.op(POP, -1);
+            }
+            compile(obj.expressions.get(i));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitAssign(Assign obj) {
+        compile(obj.value);
+        code.op(DUP, 1);
+        Token name = obj.name;
+        if (name.isGlobal()) {
+            constant(globals, GLOBALS);
+            constant(name, TOKEN);
+            invokeRuntime("setGlobal", "(" + OBJECT_DESC + GLOBALS_DESC + TOKEN_DESC + ")V");
+            return null;
+        }
+        Integer local = resolveLocal(name);
+        if (local != null) {
+            code.store(local);
+            return null;
+        }
+        code.load(UPVALUES);
+        code.pushInt(name.upvalue);
+        invokeRuntime("setUpvalue", "(" + OBJECT_DESC + UPVALUES_DESC + "I)V");
+        return null;
+    }
+
+    @Override
+    public Void visitVariable(Variable obj) {
+        Token name = obj.name;
+        if (name.isGlobal()) {
+            constant(globals, GLOBALS);
+            constant(name, TOKEN);
+            invokeRuntime("getGlobal", "(" + GLOBALS_DESC + TOKEN_DESC + ")" + OBJECT_DESC);
+            return null;
+        }
+        Integer local = resolveLocal(name);
+        if (local != null) {
+            code.load(local);
+            return null;
+        }
+        code.load(UPVALUES);
+        code.pushInt(name.upvalue);
+        invokeRuntime("getUpvalue", "(" + UPVALUES_DESC + "I)" + OBJECT_DESC);
+        return null;
+    }
+
+    // helpers
+
+    private void compile(Statement stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expression expr) {
+        expr.accept(this);
+    }
+
+    /**
+     * A declaration used directly as a branch or loop body is only executed
+     * conditionally, so its JVM local may be read before it is assigned.
+     */
+    private void branch(Statement stmt) {
+        if (stmt instanceof Var) {
+            throw new Unsupported("conditional declaration");
+        }
+        compile(stmt);
+    }
+
+    private void condition(Expression expr, Label whenFalse) {
+        compile(expr);
+        invokeRuntime("isTruthy", "(" + OBJECT_DESC + ")Z");
+        code.jump(IFEQ, whenFalse);
+    }
+
+    private void beginScope() {
+        scopes.add(new Scope(nextLocal));
+    }
+
+    private void endScope() {
+        Scope scope = scopes.remove(scopes.size() - 1);
+        nextLocal = scope.firstLocal;
+    }
+
+    private int declareLocal(Token name) {
+        Scope scope = scopes.get(scopes.size() - 1);
+        Integer local = scope.locals.get(name.slot);
+        if (local == null) {
+            if (nextLocal >= MAX_LOCALS) {
+                throw new Unsupported("too many locals");
+            }
+            local = nextLocal++;
+            scope.locals.put(name.slot, local);
+            code.maxLocals = Math.max(code.maxLocals, nextLocal);
+        }
+        return local;
+    }
+
+    /** The JVM local holding a variable of this function, or null if it belongs to an enclosing one. */
+    private Integer resolveLocal(Token name) {
+        if (name.hops >= scopes.size()) {
+            return null;
+        }
+        Integer local = scopes.get(scopes.size() - 1 - name.hops).locals.get(name.slot);
+        if (local == null) {
+            throw new Unsupported("unresolved local " + name.lexeme);
+        }
+        return local;
+    }
+
+    private void constant(Object value, String type) {
+        Integer index = constantIndex.get(value);
+        if (index == null) {
+            index = constants.size();
+            constants.add(value);
+            constantIndex.put(value, index);
+        }
+        code.load(THIS);
+        code.op2(GETFIELD, classWriter.fieldRef(className, "k", "[" + OBJECT_DESC), 0);
+        code.pushInt(index);
+        code.op(AALOAD, -1);
+        if (type != null) {
+            code.op2(CHECKCAST, classWriter.classRef(type), 0);
+        }
+    }
+
+    // every iteration of a loop checks the step limit and cancellation, as in the Interpreter
+    private void safepoint() {
+        constant(interpreter, INTERPRETER);
+        code.op2(INVOKEVIRTUAL, classWriter.methodRef(INTERPRETER, "safepoint", "()V"), -1);
+    }
+
+    private void invokeRuntime(String name, String descriptor) {
+        code.op2(INVOKESTATIC, classWriter.methodRef(RUNTIME, name, descriptor), stackEffect(descriptor));
+    }
+
+    private static int stackEffect(String descriptor) {
+        int effect = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char c = descriptor.charAt(i);
+            while (c == '[') {
+                c = descriptor.charAt(++i);
+            }
+            if (c == 'L') {
+                i = descriptor.indexOf(';', i);
+            }
+            i++;
+            effect--;
+        }
+        return descriptor.charAt(i + 1) == 'V' ? effect : effect + 1;
+    }
+}
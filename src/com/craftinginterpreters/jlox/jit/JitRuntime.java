@@ -0,0 +1,223 @@
+package com.craftinginterpreters.jlox.jit;
+
+import java.util.Arrays;
+
+import com.craftinginterpreters.jlox.interpreter.LoxArray;
+import com.craftinginterpreters.jlox.interpreter.LoxCallable;
+import com.craftinginterpreters.jlox.interpreter.LoxFunction;
+import com.craftinginterpreters.jlox.interpreter.LoxGlobalEnvironment;
+import com.craftinginterpreters.jlox.interpreter.Native;
+import com.craftinginterpreters.jlox.interpreter.NativeError;
+import com.craftinginterpreters.jlox.interpreter.RuntimeError;
+import com.craftinginterpreters.jlox.interpreter.Rope;
+import com.craftinginterpreters.jlox.interpreter.TailCall;
+import com.craftinginterpreters.jlox.interpreter.Upvalue;
+import com.craftinginterpreters.jlox.interpreter.Utils;
+import com.craftinginterpreters.jlox.syntax.Token;
+
+/**
+ * Static helpers called from compiled code. They are small enough for HotSpot
+ * to inline, and must keep the semantics and messages of the Interpreter.
+ */
+public final class JitRuntime {
+    private JitRuntime() {
+    }
+
+    // variables
+
+    public static Object getGlobal(LoxGlobalEnvironment globals, Token name) {
+        return globals.get(name);
+    }
+
+    public static void setGlobal(Object value, LoxGlobalEnvironment globals, Token name) {
+        globals.assign(name, value);
+    }
+
+    public static Object getUpvalue(Upvalue[] upvalues, int index) {
+        return upvalues[index].get();
+    }
+
+    public static void setUpvalue(Object value, Upvalue[] upvalues, int index) {
+        upvalues[index].set(value);
+    }
+
+    // operators
+
+    public static Object add(Object left, Object right, Token op) {
+        if (left instanceof Double && right instanceof Double) {
+            return (double) left + (double) right;
+        }
+        if (Utils.isString(left) || Utils.isString(right)) {
+            return Rope.concat(left, right);
+        }
+        throw new RuntimeError(op, "Invalid operand types");
+    }
+
+    public static Object subtract(Object left, Object right, Token op) {
+        if (left instanceof Double && right instanceof Double) {
+            return (double) left - (double) right;
+        }
+        throw new RuntimeError(op, "Invalid operand types");
+    }
+
+    public static Object multiply(Object left, Object right, Token op) {
+        if (left instanceof Double && right instanceof Double) {
+            return (double) left * (double) right;
+        }
+        throw new RuntimeError(op, "Invalid operand types");
+    }
+
+    public static Object divide(Object left, Object right, Token op) {
+        if (left instanceof Double && right instanceof Double) {
+            if ((double) right == 0.0) {
+                throw new RuntimeError(op, "Divison by zero is not allowed");
+            }
+            return (double) left / (double) right;
+        }
+        throw new RuntimeError(op, "Invalid operand types");
+    }
+
+    public static Object power(Object left, Object right, Token op) {
+        if (left instanceof Double && right instanceof Double) {
+            return Math.pow((double) left, (double) right);
+        }
+        throw new RuntimeError(op, "Invalid operand types");
+    }
+
+    public static Object greater(Object left, Object right, Token op) {
+        if (left instanceof Double && right instanceof Double) {
+            return (double) left > (double) right;
+        }
+        if (Utils.isString(left) && Utils.isString(right)) {
+            return Utils.compareStrings(left.toString(), right.toString()) > 0;
+        }
+        return false;
+    }
+
+    public static Object greaterEqual(Object left, Object right, Token op) {
+        if (left instanceof Double && right instanceof Double) {
+            return (double) left >= (double) right;
+        }
+        if (Utils.isString(left) && Utils.isString(right)) {
+            return Utils.compareStrings(left.toString(), right.toString()) >= 0;
+        }
+        return false;
+    }
+
+    public static Object less(Object left, Object right, Token op) {
+        if (left instanceof Double && right instanceof Double) {
+            return (double) left < (double) right;
+        }
+        if (Utils.isString(left) && Utils.isString(right)) {
+            return Utils.compareStrings(left.toString(), right.toString()) < 0;
+        }
+        return false;
+    }
+
+    public static Object lessEqual(Object left, Object right, Token op) {
+        if (left instanceof Double && right instanceof Double) {
+            return (double) left <= (double) right;
+        }
+        if (Utils.isString(left) && Utils.isString(right)) {
+            return Utils.compareStrings(left.toString(), right.toString()) <= 0;
+        }
+        return false;
+    }
+
+    public static Object equal(Object left, Object right, Token op) {
+        return Utils.isEqual(left, right);
+    }
+
+    public static Object notEqual(Object left, Object right, Token op) {
+        return !Utils.isEqual(left, right);
+    }
+
+    public static Object negate(Object value, Token op) {
+        if (value instanceof Double) {
+            return -1 * (double) value;
+        }
+        throw new RuntimeError(op, "Invalid operand types");
+    }
+
+    public static Object not(Object value, Token op) {
+        return !Utils.isTruthy(value);
+    }
+
+    public static boolean isTruthy(Object value) {
+        return Utils.isTruthy(value);
+    }
+
+    // arrays
+
+    public static Object array(Object[] elements) {
+        return LoxArray.of(elements);
+    }
+
+    public static Object getIndex(Object array, Object index, Token bracket) {
+        LoxArray target = LoxArray.cast(array, bracket);
+        return target.get(target.index(index, bracket));
+    }
+
+    public static Object setIndex(Object array, Object index, Object value, Token bracket) {
+        LoxArray target = LoxArray.cast(array, bracket);
+        target.set(target.index(index, bracket), value);
+        return value;
+    }
+
+    // statements and calls
+
+    public static void print(Object value) {
+        System.out.println(Utils.stringify(value));
+    }
+
+    public static Object call(Object callee, Object[] arguments, Token paren) {
+        try {
+            return callable(callee, arguments, paren).call(arguments);
+        } catch (NativeError error) {
+            throw error.at(paren);
+        }
+    }
+
+    /** A call in tail position; Lox functions are left to the trampoline in LoxFunction. */
+    public static Object tailCall(Object callee, Object[] arguments, Token paren) {
+        LoxCallable function = callable(callee, arguments, paren);
+        if (function instanceof LoxFunction) {
+            return new TailCall((LoxFunction) function, Arrays.asList(arguments));
+        }
+        try {
+            return function.call(arguments);
+        } catch (NativeError error) {
+            throw error.at(paren);
+        }
+    }
+
+    // calls of natives the Resolver recognized, made only while the global still holds the native
+
+    public static boolean isIntact(Native function, LoxGlobalEnvironment globals) {
+        return globals.isIntact(function);
+    }
+
+    public static Object intrinsic0(Native function, Token paren) {
+        return function.apply0();
+    }
+
+    public static Object intrinsic1(Object x, Native function, Token paren) {
+        return function.apply1(function.number(x, paren));
+    }
+
+    public static Object intrinsic2(Object x, Object y, Native function, Token paren) {
+        return function.apply2(function.number(x, paren), function.number(y, paren));
+    }
+
+    private static LoxCallable callable(Object callee, Object[] arguments, Token paren) {
+        if (!(callee instanceof LoxCallable)) {
+            throw new RuntimeError(paren, "can only call functions and classes");
+        }
+        LoxCallable function = (LoxCallable) callee;
+        if (arguments.length != function.arity()) {
+            throw new RuntimeError(paren,
+                    String.format("expected %d arguments but got %d", function.arity(), arguments.length));
+        }
+        return function;
+    }
+}
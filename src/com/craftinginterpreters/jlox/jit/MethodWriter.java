@@ -0,0 +1,166 @@
+package com.craftinginterpreters.jlox.jit;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bytecode of a single method. Callers pass the stack effect of every
+ * instruction so max_stack can be computed while emitting.
+ */
+class MethodWriter {
+    static final int ACONST_NULL = 0x01;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int ALOAD = 0x19;
+    static final int ASTORE = 0x3a;
+    static final int AALOAD = 0x32;
+    static final int AASTORE = 0x53;
+    static final int POP = 0x57;
+    static final int DUP = 0x59;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int GOTO = 0xa7;
+    static final int ARETURN = 0xb0;
+    static final int RETURN = 0xb1;
+    static final int GETSTATIC = 0xb2;
+    static final int GETFIELD = 0xb4;
+    static final int PUTFIELD = 0xb5;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC = 0xb8;
+    static final int INVOKEINTERFACE = 0xb9;
+    static final int ANEWARRAY = 0xbd;
+    static final int CHECKCAST = 0xc0;
+
+    static class Label {
+        int position = -1;
+        final List<Integer> fixups = new ArrayList<>();
+    }
+
+    final ClassWriter owner;
+    private final int access;
+    private final int name;
+    private final int descriptor;
+    private byte[] code = new byte[256];
+    private int length;
+    private int depth;
+    private int maxStack;
+    int maxLocals;
+
+    MethodWriter(ClassWriter owner, int access, int name, int descriptor) {
+        this.owner = owner;
+        this.access = access;
+        this.name = name;
+        this.descriptor = descriptor;
+    }
+
+    void op(int opcode, int stackEffect) {
+        u1(opcode);
+        adjust(stackEffect);
+    }
+
+    void op1(int opcode, int operand, int stackEffect) {
+        u1(opcode);
+        u1(operand);
+        adjust(stackEffect);
+    }
+
+    void op2(int opcode, int operand, int stackEffect) {
+        u1(opcode);
+        u2(operand);
+        adjust(stackEffect);
+    }
+
+    void pushInt(int value) {
+        if (value >= -128 && value <= 127) {
+            op1(BIPUSH, value & 0xff, 1);
+        } else {
+            op2(SIPUSH, value, 1);
+        }
+    }
+
+    void load(int local) {
+        op1(ALOAD, local, 1);
+    }
+
+    void store(int local) {
+        op1(ASTORE, local, -1);
+    }
+
+    void invokeInterface(int methodRef, int argumentSlots, int stackEffect) {
+        u1(INVOKEINTERFACE);
+        u2(methodRef);
+        u1(argumentSlots + 1);
+        u1(0);
+        adjust(stackEffect);
+    }
+
+    void jump(int opcode, Label target) {
+        int start = length;
+        u1(opcode);
+        adjust(opcode == GOTO ? 0 : -1);
+        if (target.position >= 0) {
+            u2(target.position - start);
+        } else {
+            target.fixups.add(start);
+            u2(0);
+        }
+    }
+
+    void mark(Label label) {
+        label.position = length;
+        for (int start : label.fixups) {
+            int offset = label.position - start;
+            code[start + 1] = (byte) (offset >> 8);
+            code[start + 2] = (byte) offset;
+        }
+    }
+
+    /** Operand stack height at a join point reached by a jump, e.g. an else branch. */
+    void setDepth(int depth) {
+        this.depth = depth;
+    }
+
+    int depth() {
+        return depth;
+    }
+
+    int length() {
+        return length;
+    }
+
+    private void adjust(int stackEffect) {
+        depth += stackEffect;
+        maxStack = Math.max(maxStack, depth);
+    }
+
+    private void u1(int value) {
+        if (length == code.length) {
+            code = Arrays.copyOf(code, length * 2);
+        }
+        code[length++] = (byte) value;
+    }
+
+    private void u2(int value) {
+        u1(value >> 8);
+        u1(value);
+    }
+
+    void writeTo(DataOutputStream out, int codeAttribute) throws IOException {
+        out.writeShort(access);
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1);
+        out.writeShort(codeAttribute);
+        out.writeInt(12 + length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(length);
+        out.write(code, 0, length);
+        out.writeShort(0);
+        out.writeShort(0);
+    }
+}
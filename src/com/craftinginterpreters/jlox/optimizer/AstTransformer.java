@@ -0,0 +1,279 @@
+package com.craftinginterpreters.jlox.optimizer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.craftinginterpreters.jlox.syntax.Expression;
+import com.craftinginterpreters.jlox.syntax.Expression.ArrayLiteral;
+import com.craftinginterpreters.jlox.syntax.Expression.Assign;
+import com.craftinginterpreters.jlox.syntax.Expression.Binary;
+import com.craftinginterpreters.jlox.syntax.Expression.Call;
+import com.craftinginterpreters.jlox.syntax.Expression.CommaSeperated;
+import com.craftinginterpreters.jlox.syntax.Expression.FunctionExpr;
+import com.craftinginterpreters.jlox.syntax.Expression.Grouping;
+import com.craftinginterpreters.jlox.syntax.Expression.Index;
+import com.craftinginterpreters.jlox.syntax.Expression.IndexSet;
+import com.craftinginterpreters.jlox.syntax.Expression.Literal;
+import com.craftinginterpreters.jlox.syntax.Expression.Logical;
+import com.craftinginterpreters.jlox.syntax.Expression.Unary;
+import com.craftinginterpreters.jlox.syntax.Expression.Variable;
+import com.craftinginterpreters.jlox.syntax.Statement;
+import com.craftinginterpreters.jlox.syntax.Statement.Block;
+import com.craftinginterpreters.jlox.syntax.Statement.Break;
+import com.craftinginterpreters.jlox.syntax.Statement.Continue;
+import com.craftinginterpreters.jlox.syntax.Statement.Expr;
+import com.craftinginterpreters.jlox.syntax.Statement.For;
+import com.craftinginterpreters.jlox.syntax.Statement.Function;
+import com.craftinginterpreters.jlox.syntax.Statement.IfElse;
+import com.craftinginterpreters.jlox.syntax.Statement.Print;
+import com.craftinginterpreters.jlox.syntax.Statement.Return;
+import com.craftinginterpreters.jlox.syntax.Statement.Var;
+import com.craftinginterpreters.jlox.syntax.Statement.While;
+
+/**
+ * Rebuilds the AST bottom up. A node is only copied when one of its children
+ * changed, so untouched subtrees keep their identity; a copy keeps the slot
+ * count the Resolver gave the original. Passes override the
+ * visit methods of the nodes they rewrite; a statement visit may return null
+ * to remove the statement.
+ */
+public class AstTransformer implements Expression.Visitor<Expression>, Statement.Visitor<Statement> {
+
+    public List<Statement> transform(List<Statement> statements) {
+        List<Statement> result = new ArrayList<>(statements.size());
+        boolean changed = false;
+        for (Statement stmt : statements) {
+            Statement transformed = transform(stmt);
+            changed |= transformed != stmt;
+            if (transformed != null) {
+                result.add(transformed);
+            }
+        }
+        return changed ? result : statements;
+    }
+
+    protected Statement transform(Statement stmt) {
+        return stmt == null ? null : stmt.accept(this);
+    }
+
+    protected Expression transform(Expression expr) {
+        return expr == null ? null : expr.accept(this);
+    }
+
+    protected List<Expression> transformAll(List<Expression> expressions) {
+        List<Expression> result = new ArrayList<>(expressions.size());
+        boolean changed = false;
+        for (Expression expr : expressions) {
+            Expression transformed = transform(expr);
+            changed |= transformed != expr;
+            result.add(transformed);
+        }
+        return changed ? result : expressions;
+    }
+
+    /** A statement that must stay in place, such as a loop body; removal leaves an empty block. */
+    protected Statement transformRequired(Statement stmt) {
+        Statement transformed = transform(stmt);
+        return transformed == null ? new Block(new ArrayList<>()) : transformed;
+    }
+
+    // statements
+
+    @Override
+    public Statement visitBlock(Block obj) {
+        List<Statement> stmts = transform(obj.stmts);
+        if (stmts == obj.stmts) {
+            return obj;
+        }
+        Block block = new Block(stmts);
+        block.slots = obj.slots;
+        block.captured = obj.captured;
+        return block;
+    }
+
+    @Override
+    public Statement visitExpr(Expr obj) {
+        Expression expr = transform(obj.expr);
+        return expr == obj.expr ? obj : new Expr(expr);
+    }
+
+    @Override
+    public Statement visitPrint(Print obj) {
+        Expression expr = transform(obj.expr);
+        return expr == obj.expr ? obj : new Print(expr);
+    }
+
+    @Override
+    public Statement visitVar(Var obj) {
+        Expression initializer = transform(obj.initializer);
+        return initializer == obj.initializer ? obj : new Var(obj.name, initializer);
+    }
+
+    @Override
+    public Statement visitIfElse(IfElse obj) {
+        Expression condition = transform(obj.condition);
+        Statement thenBranch = transformRequired(obj.thenBranch);
+        Statement elseBranch = transform(obj.elseBranch);
+        if (condition == obj.condition && thenBranch == obj.thenBranch && elseBranch == obj.elseBranch) {
+            return obj;
+        }
+        return new IfElse(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Statement visitWhile(While obj) {
+        Expression condition = transform(obj.codition);
+        Statement body = transformRequired(obj.body);
+        if (condition == obj.codition && body == obj.body) {
+            return obj;
+        }
+        return new While(obj.keyword, condition, body);
+    }
+
+    @Override
+    public Statement visitFor(For obj) {
+        Statement initializer = transform(obj.initializer);
+        Expression condition = transform(obj.condition);
+        Statement body = transformRequired(obj.body);
+        Expression change = transform(obj.change);
+        if (initializer == obj.initializer && condition == obj.condition && body == obj.body
+                && change == obj.change) {
+            return obj;
+        }
+        return new For(obj.keyword, initializer, condition, body, change);
+    }
+
+    @Override
+    public Statement visitFunction(Function obj) {
+        List<Statement> stmts = transform(obj.stmts);
+        if (stmts == obj.stmts) {
+            return obj;
+        }
+        Function function = new Function(obj.name, obj.params, stmts);
+        function.slots = obj.slots;
+        return function;
+    }
+
+    @Override
+    public Statement visitBreak(Break obj) {
+        return obj;
+    }
+
+    @Override
+    public Statement visitContinue(Continue obj) {
+        return obj;
+    }
+
+    @Override
+    public Statement visitReturn(Return obj) {
+        Expression expr = transform(obj.expr);
+        return expr == obj.expr ? obj : new Return(obj.keyword, expr, expr instanceof Call);
+    }
+
+    // expressions
+
+    @Override
+    public Expression visitAssign(Assign obj) {
+        Expression value = transform(obj.value);
+        return value == obj.value ? obj : new Assign(obj.name, value);
+    }
+
+    @Override
+    public Expression visitBinary(Binary obj) {
+        Expression left = transform(obj.left);
+        Expression right = transform(obj.right);
+        if (left == obj.left && right == obj.right) {
+            return obj;
+        }
+        return new Binary(left, obj.op, right);
+    }
+
+    @Override
+    public Expression visitUnary(Unary obj) {
+        Expression expr = transform(obj.expr);
+        return expr == obj.expr ? obj : new Unary(obj.op, expr);
+    }
+
+    @Override
+    public Expression visitGrouping(Grouping obj) {
+        Expression expr = transform(obj.expr);
+        return expr == obj.expr ? obj : new Grouping(expr);
+    }
+
+    @Override
+    public Expression visitLiteral(Literal obj) {
+        return obj;
+    }
+
+    @Override
+    public Expression visitCommaSeperated(CommaSeperated obj) {
+        List<Expression> expressions = transformAll(obj.expressions);
+        return expressions == obj.expressions ? obj : new CommaSeperated(expressions);
+    }
+
+    @Override
+    public Expression visitVariable(Variable obj) {
+        return obj;
+    }
+
+    @Override
+    public Expression visitLogical(Logical obj) {
+        Expression left = transform(obj.left);
+        Expression right = transform(obj.right);
+        if (left == obj.left && right == obj.right) {
+            return obj;
+        }
+        return new Logical(left, obj.op, right);
+    }
+
+    @Override
+    public Expression visitCall(Call obj) {
+        Expression callee = transform(obj.callee);
+        List<Expression> arguments = transformAll(obj.arguments);
+        if (callee == obj.callee && arguments == obj.arguments) {
+            return obj;
+        }
+        Call call = new Call(callee, obj.paren, arguments);
+        // the callee keeps its name and the argument count is unchanged, so the Resolver's choice still holds
+        call.intrinsic = obj.intrinsic;
+        return call;
+    }
+
+    @Override
+    public Expression visitArrayLiteral(ArrayLiteral obj) {
+        List<Expression> elements = transformAll(obj.elements);
+        return elements == obj.elements ? obj : new ArrayLiteral(obj.bracket, elements);
+    }
+
+    @Override
+    public Expression visitIndex(Index obj) {
+        Expression array = transform(obj.array);
+        Expression index = transform(obj.index);
+        if (array == obj.array && index == obj.index) {
+            return obj;
+        }
+        return new Index(array, obj.bracket, index);
+    }
+
+    @Override
+    public Expression visitIndexSet(IndexSet obj) {
+        Expression array = transform(obj.array);
+        Expression index = transform(obj.index);
+        Expression value = transform(obj.value);
+        if (array == obj.array && index == obj.index && value == obj.value) {
+            return obj;
+        }
+        return new IndexSet(array, obj.bracket, index, value);
+    }
+
+    @Override
+    public Expression visitFunctionExpr(FunctionExpr obj) {
+        List<Statement> stmts = transform(obj.stmts);
+        if (stmts == obj.stmts) {
+            return obj;
+        }
+        FunctionExpr function = new FunctionExpr(obj.name, obj.params, stmts);
+        function.slots = obj.slots;
+        return function;
+    }
+}
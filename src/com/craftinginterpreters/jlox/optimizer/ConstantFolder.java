@@ -0,0 +1,174 @@
+package com.craftinginterpreters.jlox.optimizer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.craftinginterpreters.jlox.interpreter.Interpreter;
+import com.craftinginterpreters.jlox.interpreter.RuntimeError;
+import com.craftinginterpreters.jlox.interpreter.Rope;
+import com.craftinginterpreters.jlox.interpreter.Utils;
+import com.craftinginterpreters.jlox.syntax.Expression;
+import com.craftinginterpreters.jlox.syntax.Expression.Binary;
+import com.craftinginterpreters.jlox.syntax.Expression.CommaSeperated;
+import com.craftinginterpreters.jlox.syntax.Expression.Grouping;
+import com.craftinginterpreters.jlox.syntax.Expression.Literal;
+import com.craftinginterpreters.jlox.syntax.Expression.Logical;
+import com.craftinginterpreters.jlox.syntax.Expression.Unary;
+import com.craftinginterpreters.jlox.syntax.Statement;
+import com.craftinginterpreters.jlox.syntax.Statement.Break;
+import com.craftinginterpreters.jlox.syntax.Statement.Continue;
+import com.craftinginterpreters.jlox.syntax.Statement.For;
+import com.craftinginterpreters.jlox.syntax.Statement.IfElse;
+import com.craftinginterpreters.jlox.syntax.Statement.Return;
+import com.craftinginterpreters.jlox.syntax.Statement.While;
+import com.craftinginterpreters.jlox.syntax.TokenType;
+
+/**
+ * Folds operators over literals and removes code that can never run.
+ *
+ * Operators are folded by running the Interpreter's own visit method on the
+ * literal operands, so folding cannot disagree with evaluation. If that
+ * raises a RuntimeError (like a division by zero) the expression is kept and
+ * fails at run time as before.
+ */
+public class ConstantFolder extends AstTransformer {
+    private final Interpreter interpreter = new Interpreter();
+    int folded;
+    int removed;
+
+    /** Drops the statements following a break, continue or return. */
+    @Override
+    public List<Statement> transform(List<Statement> statements) {
+        List<Statement> result = super.transform(statements);
+        for (int i = 0; i < result.size() - 1; i++) {
+            if (isJump(result.get(i))) {
+                removed += result.size() - i - 1;
+                return new ArrayList<>(result.subList(0, i + 1));
+            }
+        }
+        return result;
+    }
+
+    private static boolean isJump(Statement stmt) {
+        return stmt instanceof Return || stmt instanceof Break || stmt instanceof Continue;
+    }
+
+    // statements
+
+    @Override
+    public Statement visitIfElse(IfElse obj) {
+        IfElse folded = (IfElse) super.visitIfElse(obj);
+        if (folded.condition instanceof Literal) {
+            removed++;
+            return Utils.isTruthy(((Literal) folded.condition).value) ? folded.thenBranch : folded.elseBranch;
+        }
+        return folded;
+    }
+
+    @Override
+    public Statement visitWhile(While obj) {
+        While folded = (While) super.visitWhile(obj);
+        if (isFalsey(folded.codition)) {
+            removed++;
+            return null;
+        }
+        return folded;
+    }
+
+    @Override
+    public Statement visitFor(For obj) {
+        For folded = (For) super.visitFor(obj);
+        if (isFalsey(folded.condition)) {
+            removed++;
+            // the initializer still runs once and declares into the enclosing scope
+            return folded.initializer;
+        }
+        return folded;
+    }
+
+    private static boolean isFalsey(Expression condition) {
+        return condition instanceof Literal && !Utils.isTruthy(((Literal) condition).value);
+    }
+
+    // expressions
+
+    @Override
+    public Expression visitBinary(Binary obj) {
+        Expression folded = super.visitBinary(obj);
+        if (folded instanceof Binary) {
+            Binary binary = (Binary) folded;
+            if (binary.left instanceof Literal && binary.right instanceof Literal) {
+                try {
+                    Object value = interpreter.visitBinary(binary);
+                    // a literal holds a plain String, as the scanner makes it
+                    if (value instanceof Rope) {
+                        value = value.toString();
+                    }
+                    Literal literal = new Literal(value);
+                    this.folded++;
+                    return literal;
+                } catch (RuntimeError error) {
+                    return binary;
+                }
+            }
+        }
+        return folded;
+    }
+
+    @Override
+    public Expression visitUnary(Unary obj) {
+        Expression folded = super.visitUnary(obj);
+        if (folded instanceof Unary && ((Unary) folded).expr instanceof Literal) {
+            try {
+                Literal literal = new Literal(interpreter.visitUnary((Unary) folded));
+                this.folded++;
+                return literal;
+            } catch (RuntimeError error) {
+                return folded;
+            }
+        }
+        return folded;
+    }
+
+    @Override
+    public Expression visitLogical(Logical obj) {
+        Expression folded = super.visitLogical(obj);
+        if (folded instanceof Logical && ((Logical) folded).left instanceof Literal) {
+            Logical logical = (Logical) folded;
+            boolean truthy = Utils.isTruthy(((Literal) logical.left).value);
+            boolean shortCircuits = logical.op.type == TokenType.OR ? truthy : !truthy;
+            this.folded++;
+            return shortCircuits ? logical.left : logical.right;
+        }
+        return folded;
+    }
+
+    @Override
+    public Expression visitGrouping(Grouping obj) {
+        Expression folded = super.visitGrouping(obj);
+        if (folded instanceof Grouping && ((Grouping) folded).expr instanceof Literal) {
+            return ((Grouping) folded).expr;
+        }
+        return folded;
+    }
+
+    /** Literals before the last expression have no effect. */
+    @Override
+    public Expression visitCommaSeperated(CommaSeperated obj) {
+        Expression folded = super.visitCommaSeperated(obj);
+        if (!(folded instanceof CommaSeperated)) {
+            return folded;
+        }
+        List<Expression> expressions = ((CommaSeperated) folded).expressions;
+        List<Expression> kept = new ArrayList<>();
+        for (int i = 0; i < expressions.size(); i++) {
+            if (i == expressions.size() - 1 || !(expressions.get(i) instanceof Literal)) {
+                kept.add(expressions.get(i));
+            }
+        }
+        if (kept.size() == 1) {
+            return kept.get(0);
+        }
+        return kept.size() == expressions.size() ? folded : new CommaSeperated(kept);
+    }
+}
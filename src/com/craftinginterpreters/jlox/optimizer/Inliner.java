@@ -0,0 +1,348 @@
+package com.craftinginterpreters.jlox.optimizer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.craftinginterpreters.jlox.Constants;
+import com.craftinginterpreters.jlox.syntax.Expression;
+import com.craftinginterpreters.jlox.syntax.Expression.Assign;
+import com.craftinginterpreters.jlox.syntax.Expression.Binary;
+import com.craftinginterpreters.jlox.syntax.Expression.Call;
+import com.craftinginterpreters.jlox.syntax.Expression.CommaSeperated;
+import com.craftinginterpreters.jlox.syntax.Expression.FunctionExpr;
+import com.craftinginterpreters.jlox.syntax.Expression.Grouping;
+import com.craftinginterpreters.jlox.syntax.Expression.Literal;
+import com.craftinginterpreters.jlox.syntax.Expression.Logical;
+import com.craftinginterpreters.jlox.syntax.Expression.Unary;
+import com.craftinginterpreters.jlox.syntax.Expression.Variable;
+import com.craftinginterpreters.jlox.syntax.Statement;
+import com.craftinginterpreters.jlox.syntax.Statement.Block;
+import com.craftinginterpreters.jlox.syntax.Statement.Function;
+import com.craftinginterpreters.jlox.syntax.Statement.Return;
+import com.craftinginterpreters.jlox.syntax.Statement.Var;
+import com.craftinginterpreters.jlox.syntax.Symbols;
+import com.craftinginterpreters.jlox.syntax.Token;
+import com.craftinginterpreters.jlox.syntax.TokenType;
+import com.craftinginterpreters.jlox.tools.Logger;
+
+/**
+ * Replaces calls of small top level functions with their bodies.
+ *
+ * A function is inlined when its body is a single return of an expression of
+ * at most Constants.INLINE_BUDGET nodes that does not call the function
+ * itself, assign or create closures, and when its name is declared once and
+ * never assigned. Only calls that come after the declaration in program
+ * order are replaced, so the function is always defined by then, and only
+ * where no local hides the globals its body reads.
+ *
+ * Arguments are assigned to new locals first, which keeps their order of
+ * evaluation: f(a + 1) becomes ($inl0 = a + 1, <body reading $inl0>). When
+ * every argument is a literal or a variable that is defined, and the body
+ * makes no calls that could change them, the arguments are substituted
+ * directly instead. The locals are declared in front of the statement that
+ * holds the call, so the program has to be resolved again afterwards.
+ */
+public class Inliner extends AstTransformer {
+    private static final String TEMP_PREFIX = "$inl";
+
+    int inlined;
+    private int temps;
+    private int nesting;
+    private final Set<String> rebound;
+    private final Map<String, Function> functions = new HashMap<>();
+    // globals declared by the top level statements before the current one
+    private final Set<String> defined = new HashSet<>();
+    // names declared by the local scopes around the node being transformed
+    private final List<Set<String>> scopes = new ArrayList<>();
+    // locals needed by the statement being transformed in each enclosing statement list
+    private final List<List<Token>> pending = new ArrayList<>();
+    // the program's names, which the temporaries join
+    private final Symbols symbols;
+
+    public Inliner(List<Statement> program, Symbols symbols) {
+        this.symbols = symbols;
+        Bindings bindings = new Bindings();
+        for (Statement stmt : program) {
+            bindings.walk(stmt);
+        }
+        this.rebound = bindings.rebound();
+    }
+
+    @Override
+    public List<Statement> transform(List<Statement> statements) {
+        boolean topLevel = nesting++ == 0;
+        List<Statement> result = new ArrayList<>(statements.size());
+        boolean changed = false;
+        for (Statement stmt : statements) {
+            List<Token> locals = new ArrayList<>();
+            pending.add(locals);
+            Statement transformed = transform(stmt);
+            pending.remove(pending.size() - 1);
+            for (Token local : locals) {
+                result.add(new Var(local, null));
+            }
+            changed |= transformed != stmt || !locals.isEmpty();
+            if (transformed != null) {
+                result.add(transformed);
+            }
+            if (topLevel) {
+                define(transformed);
+            }
+        }
+        nesting--;
+        return changed ? result : statements;
+    }
+
+    private void define(Statement stmt) {
+        if (stmt instanceof Var) {
+            defined.add(((Var) stmt).name.lexeme);
+        } else if (stmt instanceof Function) {
+            Function function = (Function) stmt;
+            defined.add(function.name.lexeme);
+            if (isInlinable(function)) {
+                functions.put(function.name.lexeme, function);
+            }
+        }
+    }
+
+    private boolean isInlinable(Function function) {
+        if (rebound.contains(function.name.lexeme) || function.stmts.size() != 1
+                || !(function.stmts.get(0) instanceof Return)) {
+            return false;
+        }
+        Expression body = ((Return) function.stmts.get(0)).expr;
+        if (body == null) {
+            return false;
+        }
+        BodyCheck check = new BodyCheck(function);
+        return check.accepts(body) && check.size <= Constants.INLINE_BUDGET;
+    }
+
+    // scopes
+
+    private void declare(Token name) {
+        if (!scopes.isEmpty()) {
+            scopes.get(scopes.size() - 1).add(name.lexeme);
+        }
+    }
+
+    private boolean isLocal(String name) {
+        for (Set<String> scope : scopes) {
+            if (scope.contains(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Set<String> scope(List<Token> names) {
+        Set<String> scope = new HashSet<>();
+        for (Token name : names) {
+            scope.add(name.lexeme);
+        }
+        return scope;
+    }
+
+    @Override
+    public Statement visitBlock(Block obj) {
+        scopes.add(new HashSet<>());
+        Statement result = super.visitBlock(obj);
+        scopes.remove(scopes.size() - 1);
+        return result;
+    }
+
+    @Override
+    public Statement visitVar(Var obj) {
+        Statement result = super.visitVar(obj);
+        declare(obj.name);
+        return result;
+    }
+
+    @Override
+    public Statement visitFunction(Function obj) {
+        declare(obj.name);
+        scopes.add(scope(obj.params));
+        Statement result = super.visitFunction(obj);
+        scopes.remove(scopes.size() - 1);
+        return result;
+    }
+
+    @Override
+    public Expression visitFunctionExpr(FunctionExpr obj) {
+        Set<String> scope = scope(obj.params);
+        if (obj.name != null) {
+            scope.add(obj.name.lexeme);
+        }
+        scopes.add(scope);
+        Expression result = super.visitFunctionExpr(obj);
+        scopes.remove(scopes.size() - 1);
+        return result;
+    }
+
+    // calls
+
+    @Override
+    public Expression visitCall(Call obj) {
+        Expression expr = super.visitCall(obj);
+        if (!(expr instanceof Call) || !(((Call) expr).callee instanceof Variable)) {
+            return expr;
+        }
+        Call call = (Call) expr;
+        Token callee = ((Variable) call.callee).name;
+        Function function = functions.get(callee.lexeme);
+        if (function == null || !callee.isGlobal() || isLocal(callee.lexeme)
+                || function.params.size() != call.arguments.size()) {
+            return expr;
+        }
+        Expression body = ((Return) function.stmts.get(0)).expr;
+        BodyCheck check = new BodyCheck(function);
+        check.accepts(body);
+        for (String name : check.globals) {
+            if (isLocal(name)) {
+                return expr;
+            }
+        }
+
+        boolean direct = !check.calls;
+        for (Expression argument : call.arguments) {
+            direct &= argument instanceof Literal
+                    || (argument instanceof Variable && isDefined(((Variable) argument).name));
+        }
+        List<Expression> expressions = new ArrayList<>();
+        Map<String, Expression> arguments = new HashMap<>();
+        for (int i = 0; i < call.arguments.size(); i++) {
+            Expression argument = call.arguments.get(i);
+            if (!direct && !(argument instanceof Literal)) {
+                String temp = TEMP_PREFIX + temps++;
+                Token local = new Token(TokenType.IDENTIFIER, temp, null, call.paren.line, symbols.intern(temp));
+                pending.get(pending.size() - 1).add(local);
+                expressions.add(new Assign(StrengthReducer.copy(local), argument));
+                argument = new Variable(local);
+            }
+            arguments.put(function.params.get(i).lexeme, argument);
+        }
+        expressions.add(new Substitution(arguments).transform(body));
+
+        inlined++;
+        Logger.debug(String.format("inline: call to %s at line %d", callee.lexeme, call.paren.line));
+        return expressions.size() == 1 ? expressions.get(0) : new CommaSeperated(expressions);
+    }
+
+    private boolean isDefined(Token name) {
+        return !name.isGlobal() || defined.contains(name.lexeme);
+    }
+
+    /** Checks the body of a function and counts its nodes. */
+    private static class BodyCheck {
+        private final Function function;
+        private final Set<String> params;
+        int size;
+        boolean calls;
+        // the names the body reads that are not parameters
+        final Set<String> globals = new HashSet<>();
+
+        BodyCheck(Function function) {
+            this.function = function;
+            this.params = new HashSet<>();
+            for (Token param : function.params) {
+                params.add(param.lexeme);
+            }
+        }
+
+        boolean accepts(Expression expr) {
+            size++;
+            if (expr instanceof Literal) {
+                return true;
+            }
+            if (expr instanceof Variable) {
+                String name = ((Variable) expr).name.lexeme;
+                if (!params.contains(name)) {
+                    globals.add(name);
+                }
+                return true;
+            }
+            if (expr instanceof Grouping) {
+                return accepts(((Grouping) expr).expr);
+            }
+            if (expr instanceof Unary) {
+                return accepts(((Unary) expr).expr);
+            }
+            if (expr instanceof Binary) {
+                return accepts(((Binary) expr).left) && accepts(((Binary) expr).right);
+            }
+            if (expr instanceof Logical) {
+                return accepts(((Logical) expr).left) && accepts(((Logical) expr).right);
+            }
+            if (expr instanceof CommaSeperated) {
+                return ((CommaSeperated) expr).expressions.stream().allMatch(this::accepts);
+            }
+            if (expr instanceof Call) {
+                Call call = (Call) expr;
+                calls = true;
+                if (call.callee instanceof Variable
+                        && ((Variable) call.callee).name.lexeme.equals(function.name.lexeme)) {
+                    return false;
+                }
+                return accepts(call.callee) && call.arguments.stream().allMatch(this::accepts);
+            }
+            return false;
+        }
+    }
+
+    /** A copy of a body with the parameters replaced, and a token of its own for every variable. */
+    private static class Substitution extends AstTransformer {
+        private final Map<String, Expression> arguments;
+
+        Substitution(Map<String, Expression> arguments) {
+            this.arguments = arguments;
+        }
+
+        @Override
+        public Expression visitVariable(Variable obj) {
+            Expression argument = arguments.get(obj.name.lexeme);
+            if (argument instanceof Literal) {
+                return argument;
+            }
+            Token name = argument == null ? obj.name : ((Variable) argument).name;
+            return new Variable(StrengthReducer.copy(name));
+        }
+    }
+
+    /** Names declared more than once at the top level, or assigned anywhere. */
+    static class Bindings extends ScopeWalker {
+        private final Set<String> declared = new HashSet<>();
+        private final Set<String> rebound = new HashSet<>();
+
+        Set<String> rebound() {
+            return rebound;
+        }
+
+        private void global(Token name) {
+            if (scopes.isEmpty() && !declared.add(name.lexeme)) {
+                rebound.add(name.lexeme);
+            }
+        }
+
+        @Override
+        public Void visitVar(Var obj) {
+            global(obj.name);
+            return super.visitVar(obj);
+        }
+
+        @Override
+        public Void visitFunction(Function obj) {
+            global(obj.name);
+            return super.visitFunction(obj);
+        }
+
+        @Override
+        public Void visitAssign(Assign obj) {
+            rebound.add(obj.name.lexeme);
+            return super.visitAssign(obj);
+        }
+    }
+}
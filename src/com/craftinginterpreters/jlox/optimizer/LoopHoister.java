@@ -0,0 +1,638 @@
+package com.craftinginterpreters.jlox.optimizer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.craftinginterpreters.jlox.syntax.Expression;
+import com.craftinginterpreters.jlox.syntax.Expression.ArrayLiteral;
+import com.craftinginterpreters.jlox.syntax.Expression.Assign;
+import com.craftinginterpreters.jlox.syntax.Expression.Binary;
+import com.craftinginterpreters.jlox.syntax.Expression.Call;
+import com.craftinginterpreters.jlox.syntax.Expression.CommaSeperated;
+import com.craftinginterpreters.jlox.syntax.Expression.FunctionExpr;
+import com.craftinginterpreters.jlox.syntax.Expression.Grouping;
+import com.craftinginterpreters.jlox.syntax.Expression.Index;
+import com.craftinginterpreters.jlox.syntax.Expression.IndexSet;
+import com.craftinginterpreters.jlox.syntax.Expression.Literal;
+import com.craftinginterpreters.jlox.syntax.Expression.Logical;
+import com.craftinginterpreters.jlox.syntax.Expression.Unary;
+import com.craftinginterpreters.jlox.syntax.Expression.Variable;
+import com.craftinginterpreters.jlox.syntax.Statement;
+import com.craftinginterpreters.jlox.syntax.Statement.Block;
+import com.craftinginterpreters.jlox.syntax.Statement.Break;
+import com.craftinginterpreters.jlox.syntax.Statement.Continue;
+import com.craftinginterpreters.jlox.syntax.Statement.Expr;
+import com.craftinginterpreters.jlox.syntax.Statement.For;
+import com.craftinginterpreters.jlox.syntax.Statement.Function;
+import com.craftinginterpreters.jlox.syntax.Statement.IfElse;
+import com.craftinginterpreters.jlox.syntax.Statement.Print;
+import com.craftinginterpreters.jlox.syntax.Statement.Return;
+import com.craftinginterpreters.jlox.syntax.Statement.Var;
+import com.craftinginterpreters.jlox.syntax.Statement.While;
+import com.craftinginterpreters.jlox.syntax.Symbols;
+import com.craftinginterpreters.jlox.syntax.Token;
+import com.craftinginterpreters.jlox.syntax.TokenType;
+import com.craftinginterpreters.jlox.tools.AstPrinter;
+import com.craftinginterpreters.jlox.tools.Logger;
+
+/**
+ * Moves loop-invariant expressions out of while and for loops. Each one is
+ * evaluated once into a new local of a block wrapped around the loop.
+ *
+ * An expression is invariant when it is made of operators, literals and
+ * variables declared outside the loop that nothing in the loop assigns. A
+ * call in the loop may run a function that assigns a variable of an
+ * enclosing scope, so when the loop has calls, such variables count as
+ * written too.
+ *
+ * An expression that can fail (arithmetic on the wrong types, an undefined
+ * global) must not fail where the loop would not have, or ahead of an error
+ * the loop would have reported first. It is only hoisted when the first
+ * iteration evaluates it before anything else that can fail or print: from
+ * the condition, or from the body behind an extra check of the condition,
+ * which is only made when the condition has no calls or assignments.
+ *
+ * The new blocks shift the scopes of the loop, so the program has to be
+ * resolved again afterwards.
+ */
+public class LoopHoister extends AstTransformer {
+    private static final String TEMP_PREFIX = "$licm";
+
+    int hoisted;
+    private int temps;
+    private int nesting;
+    // a for loop in a statement list, where its initializer can move in front of it
+    private Statement splittable;
+    private final Set<String> captured;
+    // globals declared by the top level statements before the current one
+    private final Set<String> defined = new HashSet<>();
+    // the program's names, which the temporaries join
+    private final Symbols symbols;
+
+    public LoopHoister(List<Statement> program, Symbols symbols) {
+        this.symbols = symbols;
+        CapturedWrites writes = new CapturedWrites();
+        for (Statement stmt : program) {
+            writes.walk(stmt);
+        }
+        this.captured = writes.names;
+    }
+
+    @Override
+    public List<Statement> transform(List<Statement> statements) {
+        boolean topLevel = nesting++ == 0;
+        List<Statement> result = new ArrayList<>(statements.size());
+        boolean changed = false;
+        for (Statement stmt : statements) {
+            boolean split = stmt instanceof For && ((For) stmt).initializer instanceof Var;
+            if (split) {
+                splittable = stmt;
+            }
+            Statement transformed = transform(stmt);
+            changed |= transformed != stmt;
+            if (split && transformed instanceof Block) {
+                result.addAll(((Block) transformed).stmts);
+            } else if (transformed != null) {
+                result.add(transformed);
+            }
+            if (topLevel) {
+                define(stmt);
+            }
+        }
+        nesting--;
+        return changed ? result : statements;
+    }
+
+    private void define(Statement stmt) {
+        if (stmt instanceof Var) {
+            defined.add(((Var) stmt).name.lexeme);
+        } else if (stmt instanceof Function) {
+            defined.add(((Function) stmt).name.lexeme);
+        } else if (stmt instanceof For && ((For) stmt).initializer instanceof Var) {
+            defined.add(((Var) ((For) stmt).initializer).name.lexeme);
+        }
+    }
+
+    @Override
+    public Statement visitWhile(While obj) {
+        While loop = (While) super.visitWhile(obj);
+        Hoisting hoisting = new Hoisting(null);
+        hoisting.analyze(loop.codition, loop.body, null);
+        if (hoisting.isEmpty()) {
+            return loop;
+        }
+        Replacer replacer = hoisting.replacer();
+        Expression condition = replacer.transform(loop.codition);
+        Statement body = replacer.transformRequired(loop.body);
+        return new Block(hoisting.wrap(new While(loop.keyword, condition, body), condition, loop.keyword));
+    }
+
+    @Override
+    public Statement visitFor(For obj) {
+        boolean split = obj == splittable;
+        splittable = null;
+        For loop = (For) super.visitFor(obj);
+        Token counter = null;
+        if (loop.initializer instanceof Var) {
+            if (!split) {
+                return loop;
+            }
+            counter = ((Var) loop.initializer).name;
+        }
+        Hoisting hoisting = new Hoisting(counter);
+        hoisting.analyze(loop.condition, loop.body, loop.change);
+        if (hoisting.isEmpty()) {
+            return loop;
+        }
+        Replacer replacer = hoisting.replacer();
+        Expression condition = replacer.transform(loop.condition);
+        Statement body = replacer.transformRequired(loop.body);
+        Expression change = replacer.transform(loop.change);
+        List<Statement> stmts = hoisting.wrap(new For(loop.keyword, null, condition, body, change), condition,
+                loop.keyword);
+        List<Statement> result = new ArrayList<>();
+        if (counter != null) {
+            // the caller splices these two into its statement list
+            result.add(loop.initializer);
+            result.add(new Block(stmts));
+            return new Block(result);
+        }
+        if (loop.initializer != null) {
+            result.add(loop.initializer);
+        }
+        result.addAll(stmts);
+        return new Block(result);
+    }
+
+    /**
+     * Picks the expressions to hoist out of one loop. The walk follows the
+     * order of evaluation of the first iteration: anticipated is true while
+     * everything so far runs unconditionally without printing, and blocked
+     * once something that can fail was left in place.
+     */
+    private class Hoisting implements Expression.Visitor<Void>, Statement.Visitor<Void> {
+        // a global declared by the for initializer, so it is defined in the loop
+        private final Token counter;
+        private LoopWrites writes;
+        // hoisted in front of the loop, and behind the extra check of the condition
+        private final List<Expression> unguarded = new ArrayList<>();
+        private final List<Expression> guarded = new ArrayList<>();
+        private final Map<Expression, Token> names = new IdentityHashMap<>();
+        private boolean guarding;
+        private boolean anticipated;
+        private boolean blocked;
+        private int effects;
+
+        Hoisting(Token counter) {
+            this.counter = counter;
+        }
+
+        void analyze(Expression condition, Statement body, Expression change) {
+            writes = new LoopWrites();
+            writes.beginScope();
+            writes.walk(condition);
+            writes.walk(body);
+            writes.walk(change);
+
+            anticipated = true;
+            walk(condition);
+            guarding = isPure(condition);
+            anticipated = guarding;
+            blocked = false;
+            walk(body);
+            anticipated = false;
+            walk(change);
+        }
+
+        boolean isEmpty() {
+            return unguarded.isEmpty() && guarded.isEmpty();
+        }
+
+        Replacer replacer() {
+            for (Expression expr : unguarded) {
+                names.put(expr, temp(expr));
+            }
+            for (Expression expr : guarded) {
+                names.put(expr, temp(expr));
+            }
+            return new Replacer(names);
+        }
+
+        /** The statements of the block around the loop, which declare the hoisted values. */
+        List<Statement> wrap(Statement loop, Expression condition, Token keyword) {
+            List<String> printed = new ArrayList<>();
+            AstPrinter printer = new AstPrinter();
+            List<Statement> stmts = declare(unguarded, printed, printer);
+            if (guarded.isEmpty()) {
+                stmts.add(loop);
+            } else {
+                List<Statement> inner = declare(guarded, printed, printer);
+                inner.add(loop);
+                stmts.add(new IfElse(new Copier().transform(condition), new Block(inner), null));
+            }
+            hoisted += printed.size();
+            Logger.debug(String.format("licm: loop at line %d: hoisted %s", keyword.line, String.join(", ", printed)));
+            return stmts;
+        }
+
+        private List<Statement> declare(List<Expression> expressions, List<String> printed, AstPrinter printer) {
+            List<Statement> stmts = new ArrayList<>();
+            for (Expression expr : expressions) {
+                stmts.add(new Var(names.get(expr), expr));
+                printed.add(printer.print(expr));
+            }
+            return stmts;
+        }
+
+        private void walk(Expression expr) {
+            if (expr == null) {
+                return;
+            }
+            if (isInvariant(expr) && !isTrivial(expr)) {
+                if (!canThrow(expr)) {
+                    unguarded.add(expr);
+                } else if (anticipated && !blocked) {
+                    (guarding ? guarded : unguarded).add(expr);
+                } else {
+                    blocked = true;
+                }
+                return;
+            }
+            expr.accept(this);
+        }
+
+        private void walk(Statement stmt) {
+            if (stmt != null) {
+                stmt.accept(this);
+            }
+        }
+
+        private boolean isInvariant(Expression expr) {
+            if (expr instanceof Variable) {
+                Variable variable = (Variable) expr;
+                String name = variable.name.lexeme;
+                return !writes.inner.contains(variable) && !writes.names.contains(name)
+                        && !(writes.calls && captured.contains(name));
+            }
+            return isPure(expr) && children(expr).stream().allMatch(this::isInvariant);
+        }
+
+        private boolean canThrow(Expression expr) {
+            if (expr instanceof Variable) {
+                return mayBeUndefined(((Variable) expr).name) && !writes.inner.contains(expr);
+            }
+            if (expr instanceof Binary && !isComparison(((Binary) expr).op)) {
+                return true;
+            }
+            if (expr instanceof Unary && ((Unary) expr).op.type == TokenType.MINUS) {
+                return true;
+            }
+            return children(expr).stream().anyMatch(this::canThrow);
+        }
+
+        private boolean mayBeUndefined(Token name) {
+            return name.isGlobal() && !defined.contains(name.lexeme)
+                    && !(counter != null && counter.isGlobal() && counter.lexeme.equals(name.lexeme));
+        }
+
+        // statements
+
+        @Override
+        public Void visitBlock(Block obj) {
+            for (Statement stmt : obj.stmts) {
+                walk(stmt);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitExpr(Expr obj) {
+            walk(obj.expr);
+            return null;
+        }
+
+        @Override
+        public Void visitPrint(Print obj) {
+            walk(obj.expr);
+            anticipated = false;
+            return null;
+        }
+
+        @Override
+        public Void visitVar(Var obj) {
+            walk(obj.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitIfElse(IfElse obj) {
+            walk(obj.condition);
+            anticipated = false;
+            walk(obj.thenBranch);
+            walk(obj.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitWhile(While obj) {
+            anticipated = false;
+            walk(obj.codition);
+            walk(obj.body);
+            return null;
+        }
+
+        @Override
+        public Void visitFor(For obj) {
+            walk(obj.initializer);
+            anticipated = false;
+            walk(obj.condition);
+            walk(obj.body);
+            walk(obj.change);
+            return null;
+        }
+
+        @Override
+        public Void visitFunction(Function obj) {
+            return null;
+        }
+
+        @Override
+        public Void visitBreak(Break obj) {
+            anticipated = false;
+            return null;
+        }
+
+        @Override
+        public Void visitContinue(Continue obj) {
+            anticipated = false;
+            return null;
+        }
+
+        @Override
+        public Void visitReturn(Return obj) {
+            walk(obj.expr);
+            anticipated = false;
+            return null;
+        }
+
+        // expressions
+
+        @Override
+        public Void visitAssign(Assign obj) {
+            walk(obj.value);
+            blocked |= mayBeUndefined(obj.name) && !writes.declared(obj);
+            return null;
+        }
+
+        @Override
+        public Void visitBinary(Binary obj) {
+            walk(obj.left);
+            walk(obj.right);
+            blocked |= !isComparison(obj.op);
+            return null;
+        }
+
+        @Override
+        public Void visitUnary(Unary obj) {
+            walk(obj.expr);
+            blocked |= obj.op.type == TokenType.MINUS;
+            return null;
+        }
+
+        @Override
+        public Void visitGrouping(Grouping obj) {
+            walk(obj.expr);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteral(Literal obj) {
+            return null;
+        }
+
+        @Override
+        public Void visitCommaSeperated(CommaSeperated obj) {
+            for (Expression expr : obj.expressions) {
+                walk(expr);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitVariable(Variable obj) {
+            blocked |= canThrow(obj);
+            return null;
+        }
+
+        @Override
+        public Void visitLogical(Logical obj) {
+            walk(obj.left);
+            boolean before = anticipated;
+            int count = effects;
+            anticipated = false;
+            walk(obj.right);
+            anticipated = before && effects == count;
+            return null;
+        }
+
+        @Override
+        public Void visitCall(Call obj) {
+            walk(obj.callee);
+            for (Expression expr : obj.arguments) {
+                walk(expr);
+            }
+            effects++;
+            anticipated = false;
+            blocked = true;
+            return null;
+        }
+
+        @Override
+        public Void visitArrayLiteral(ArrayLiteral obj) {
+            for (Expression expr : obj.elements) {
+                walk(expr);
+            }
+            return null;
+        }
+
+        // elements are never invariant, since the loop may store into the array through any variable
+        @Override
+        public Void visitIndex(Index obj) {
+            walk(obj.array);
+            walk(obj.index);
+            blocked = true;
+            return null;
+        }
+
+        @Override
+        public Void visitIndexSet(IndexSet obj) {
+            walk(obj.array);
+            walk(obj.index);
+            walk(obj.value);
+            effects++;
+            anticipated = false;
+            blocked = true;
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionExpr(FunctionExpr obj) {
+            return null;
+        }
+    }
+
+    private Token temp(Expression expr) {
+        String name = TEMP_PREFIX + temps++;
+        return new Token(TokenType.IDENTIFIER, name, null, line(expr), symbols.intern(name));
+    }
+
+    private static boolean isComparison(Token op) {
+        switch (op.type) {
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+            case EQUAL_EQUAL:
+            case BANG_EQUAL:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /** Operators over the operands, with no calls or assignments anywhere. */
+    private static boolean isPure(Expression expr) {
+        if (expr instanceof Literal || expr instanceof Variable) {
+            return true;
+        }
+        if (expr instanceof Grouping || expr instanceof Unary || expr instanceof Binary || expr instanceof Logical) {
+            return children(expr).stream().allMatch(LoopHoister::isPure);
+        }
+        return false;
+    }
+
+    // nothing is gained by hoisting a lone variable or literal
+    private static boolean isTrivial(Expression expr) {
+        if (expr instanceof Grouping) {
+            return isTrivial(((Grouping) expr).expr);
+        }
+        return expr instanceof Literal || expr instanceof Variable;
+    }
+
+    private static List<Expression> children(Expression expr) {
+        if (expr instanceof Grouping) {
+            return Collections.singletonList(((Grouping) expr).expr);
+        }
+        if (expr instanceof Unary) {
+            return Collections.singletonList(((Unary) expr).expr);
+        }
+        if (expr instanceof Binary) {
+            return List.of(((Binary) expr).left, ((Binary) expr).right);
+        }
+        if (expr instanceof Logical) {
+            return List.of(((Logical) expr).left, ((Logical) expr).right);
+        }
+        return Collections.emptyList();
+    }
+
+    private static int line(Expression expr) {
+        if (expr instanceof Binary) {
+            return ((Binary) expr).op.line;
+        }
+        if (expr instanceof Logical) {
+            return ((Logical) expr).op.line;
+        }
+        if (expr instanceof Unary) {
+            return ((Unary) expr).op.line;
+        }
+        if (expr instanceof Grouping) {
+            return line(((Grouping) expr).expr);
+        }
+        if (expr instanceof Variable) {
+            return ((Variable) expr).name.line;
+        }
+        return 0;
+    }
+
+    /** The variables a loop assigns, and the uses of variables it declares itself. */
+    private static class LoopWrites extends ScopeWalker {
+        final Set<String> names = new HashSet<>();
+        final Set<Variable> inner = Collections.newSetFromMap(new IdentityHashMap<>());
+        private final Set<Assign> local = Collections.newSetFromMap(new IdentityHashMap<>());
+        boolean calls;
+
+        boolean declared(Assign assign) {
+            return local.contains(assign);
+        }
+
+        @Override
+        public Void visitAssign(Assign obj) {
+            super.visitAssign(obj);
+            if (declaredSince(obj.name.lexeme, 0)) {
+                local.add(obj);
+            } else {
+                names.add(obj.name.lexeme);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitVariable(Variable obj) {
+            if (declaredSince(obj.name.lexeme, 0)) {
+                inner.add(obj);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitCall(Call obj) {
+            calls = true;
+            return super.visitCall(obj);
+        }
+    }
+
+    /** Names that a function assigns in one of its enclosing scopes. */
+    private static class CapturedWrites extends ScopeWalker {
+        final Set<String> names = new HashSet<>();
+
+        @Override
+        public Void visitAssign(Assign obj) {
+            super.visitAssign(obj);
+            if (functionScope >= 0 && !declaredSince(obj.name.lexeme, functionScope)) {
+                names.add(obj.name.lexeme);
+            }
+            return null;
+        }
+    }
+
+    /** Puts a read of its local in place of each hoisted expression. */
+    private static class Replacer extends AstTransformer {
+        private final Map<Expression, Token> names;
+
+        Replacer(Map<Expression, Token> names) {
+            this.names = names;
+        }
+
+        @Override
+        protected Expression transform(Expression expr) {
+            Token name = expr == null ? null : names.get(expr);
+            if (name != null) {
+                return new Variable(StrengthReducer.copy(name));
+            }
+            return super.transform(expr);
+        }
+    }
+
+    /** A copy of an expression, with a token of its own for every variable. */
+    private static class Copier extends AstTransformer {
+        @Override
+        public Expression visitVariable(Variable obj) {
+            return new Variable(StrengthReducer.copy(obj.name));
+        }
+    }
+}
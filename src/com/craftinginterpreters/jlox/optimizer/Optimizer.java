@@ -0,0 +1,36 @@
+package com.craftinginterpreters.jlox.optimizer;
+
+import java.util.List;
+
+import com.craftinginterpreters.jlox.parser.Resolver;
+import com.craftinginterpreters.jlox.syntax.Statement;
+import com.craftinginterpreters.jlox.syntax.Symbols;
+import com.craftinginterpreters.jlox.tools.Logger;
+
+/**
+ * Rewrites a resolved program before it is run. The result is resolved
+ * again when a pass changed its scopes, so it runs on every engine.
+ */
+public class Optimizer {
+    /** Symbols are those of the program's scanner; the optimizer adds the names of its temporaries. */
+    public static List<Statement> optimize(List<Statement> statements, Symbols symbols) {
+        Inliner inliner = new Inliner(statements, symbols);
+        statements = inliner.transform(statements);
+        if (inliner.inlined > 0) {
+            new Resolver(false).resolve(statements);
+        }
+        ConstantFolder folder = new ConstantFolder();
+        statements = folder.transform(statements);
+        StrengthReducer reducer = new StrengthReducer();
+        statements = reducer.transform(statements);
+        LoopHoister hoister = new LoopHoister(statements, symbols);
+        statements = hoister.transform(statements);
+        if (hoister.hoisted > 0) {
+            new Resolver(false).resolve(statements);
+        }
+        Logger.debug(String.format("optimizer: inlined %d calls, folded %d expressions, removed %d statements, "
+                + "reduced %d powers, hoisted %d expressions",
+                inliner.inlined, folder.folded, folder.removed, reducer.reduced, hoister.hoisted));
+        return statements;
+    }
+}
@@ -0,0 +1,139 @@
+package com.craftinginterpreters.jlox.optimizer;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.craftinginterpreters.jlox.syntax.Expression.ArrayLiteral;
+import com.craftinginterpreters.jlox.syntax.Expression.Assign;
+import com.craftinginterpreters.jlox.syntax.Expression.Call;
+import com.craftinginterpreters.jlox.syntax.Expression.FunctionExpr;
+import com.craftinginterpreters.jlox.syntax.Expression.IndexSet;
+import com.craftinginterpreters.jlox.syntax.Expression.Variable;
+import com.craftinginterpreters.jlox.syntax.Statement;
+import com.craftinginterpreters.jlox.syntax.Statement.Function;
+import com.craftinginterpreters.jlox.syntax.Statement.Print;
+
+/**
+ * Finds the top level functions whose result depends on nothing but their
+ * arguments, so a call can be answered from a cache.
+ *
+ * A function is pure when its name is declared once and never assigned, and
+ * its body prints nothing, assigns only its own locals, creates no closures
+ * or arrays (a cached array would be shared by every caller), stores into no
+ * array, reads no variables of its own but its locals and pure functions, and only
+ * calls pure functions by name. Functions calling each other are pure
+ * together unless one of them breaks a rule.
+ */
+public class Purity {
+    /** The declarations among the top level statements that are pure. */
+    public static Set<Function> pureFunctions(List<Statement> program) {
+        Inliner.Bindings bindings = new Inliner.Bindings();
+        Map<String, Function> functions = new HashMap<>();
+        for (Statement stmt : program) {
+            bindings.walk(stmt);
+            if (stmt instanceof Function) {
+                functions.put(((Function) stmt).name.lexeme, (Function) stmt);
+            }
+        }
+        functions.keySet().removeAll(bindings.rebound());
+
+        Map<String, BodyCheck> checks = new HashMap<>();
+        for (Function function : functions.values()) {
+            BodyCheck check = new BodyCheck(functions.keySet());
+            check.walk(function);
+            if (check.pure) {
+                checks.put(function.name.lexeme, check);
+            }
+        }
+        // drop functions calling one that is not pure until nothing changes
+        boolean changed = true;
+        while (changed) {
+            changed = checks.values().removeIf(check -> !checks.keySet().containsAll(check.callees));
+        }
+
+        Set<Function> pure = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (String name : checks.keySet()) {
+            pure.add(functions.get(name));
+        }
+        return pure;
+    }
+
+    /** Checks one body against every rule but the purity of its callees, which it collects. */
+    private static class BodyCheck extends ScopeWalker {
+        private final Set<String> functions;
+        final Set<String> callees = new HashSet<>();
+        boolean pure = true;
+
+        BodyCheck(Set<String> functions) {
+            this.functions = functions;
+        }
+
+        private boolean isLocal(String name) {
+            return declaredSince(name, functionScope);
+        }
+
+        @Override
+        public Void visitFunction(Function obj) {
+            // the declaration being checked; nested ones create closures
+            if (functionScope != -1) {
+                pure = false;
+            }
+            return super.visitFunction(obj);
+        }
+
+        @Override
+        public Void visitPrint(Print obj) {
+            pure = false;
+            return super.visitPrint(obj);
+        }
+
+        @Override
+        public Void visitAssign(Assign obj) {
+            if (!isLocal(obj.name.lexeme)) {
+                pure = false;
+            }
+            return super.visitAssign(obj);
+        }
+
+        @Override
+        public Void visitVariable(Variable obj) {
+            if (!isLocal(obj.name.lexeme) && !functions.contains(obj.name.lexeme)) {
+                pure = false;
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitCall(Call obj) {
+            if (obj.callee instanceof Variable && !isLocal(((Variable) obj.callee).name.lexeme)) {
+                callees.add(((Variable) obj.callee).name.lexeme);
+            } else {
+                pure = false;
+            }
+            return super.visitCall(obj);
+        }
+
+        @Override
+        public Void visitFunctionExpr(FunctionExpr obj) {
+            pure = false;
+            return super.visitFunctionExpr(obj);
+        }
+
+        @Override
+        public Void visitArrayLiteral(ArrayLiteral obj) {
+            pure = false;
+            return super.visitArrayLiteral(obj);
+        }
+
+        @Override
+        public Void visitIndexSet(IndexSet obj) {
+            pure = false;
+            return super.visitIndexSet(obj);
+        }
+    }
+}
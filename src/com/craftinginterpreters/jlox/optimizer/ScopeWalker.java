@@ -0,0 +1,266 @@
+package com.craftinginterpreters.jlox.optimizer;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.craftinginterpreters.jlox.syntax.Expression;
+import com.craftinginterpreters.jlox.syntax.Expression.ArrayLiteral;
+import com.craftinginterpreters.jlox.syntax.Expression.Assign;
+import com.craftinginterpreters.jlox.syntax.Expression.Binary;
+import com.craftinginterpreters.jlox.syntax.Expression.Call;
+import com.craftinginterpreters.jlox.syntax.Expression.CommaSeperated;
+import com.craftinginterpreters.jlox.syntax.Expression.FunctionExpr;
+import com.craftinginterpreters.jlox.syntax.Expression.Grouping;
+import com.craftinginterpreters.jlox.syntax.Expression.Index;
+import com.craftinginterpreters.jlox.syntax.Expression.IndexSet;
+import com.craftinginterpreters.jlox.syntax.Expression.Literal;
+import com.craftinginterpreters.jlox.syntax.Expression.Logical;
+import com.craftinginterpreters.jlox.syntax.Expression.Unary;
+import com.craftinginterpreters.jlox.syntax.Expression.Variable;
+import com.craftinginterpreters.jlox.syntax.Statement;
+import com.craftinginterpreters.jlox.syntax.Statement.Block;
+import com.craftinginterpreters.jlox.syntax.Statement.Break;
+import com.craftinginterpreters.jlox.syntax.Statement.Continue;
+import com.craftinginterpreters.jlox.syntax.Statement.Expr;
+import com.craftinginterpreters.jlox.syntax.Statement.For;
+import com.craftinginterpreters.jlox.syntax.Statement.Function;
+import com.craftinginterpreters.jlox.syntax.Statement.IfElse;
+import com.craftinginterpreters.jlox.syntax.Statement.Print;
+import com.craftinginterpreters.jlox.syntax.Statement.Return;
+import com.craftinginterpreters.jlox.syntax.Statement.Var;
+import com.craftinginterpreters.jlox.syntax.Statement.While;
+import com.craftinginterpreters.jlox.syntax.Token;
+
+/**
+ * Walks a tree keeping the names declared in each scope, nested the same way
+ * the Resolver nests them. It works on names rather than on the Resolver's
+ * annotations, so it also sees declarations an earlier pass introduced.
+ */
+abstract class ScopeWalker implements Expression.Visitor<Void>, Statement.Visitor<Void> {
+    protected final List<Set<String>> scopes = new ArrayList<>();
+    // index of the outermost scope of the innermost function, or -1 outside functions
+    protected int functionScope = -1;
+
+    void walk(Statement stmt) {
+        if (stmt != null) {
+            stmt.accept(this);
+        }
+    }
+
+    void walk(Expression expr) {
+        if (expr != null) {
+            expr.accept(this);
+        }
+    }
+
+    protected void beginScope() {
+        scopes.add(new HashSet<>());
+    }
+
+    protected void endScope() {
+        scopes.remove(scopes.size() - 1);
+    }
+
+    protected void declare(Token name) {
+        if (!scopes.isEmpty()) {
+            scopes.get(scopes.size() - 1).add(name.lexeme);
+        }
+    }
+
+    /** Whether the name is declared in the scope at the given index or one nested in it. */
+    protected boolean declaredSince(String name, int scope) {
+        for (int i = scopes.size() - 1; i >= scope && i >= 0; i--) {
+            if (scopes.get(i).contains(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void function(Token name, List<Token> params, List<Statement> stmts) {
+        int enclosing = functionScope;
+        functionScope = scopes.size();
+        beginScope();
+        if (name != null) {
+            declare(name);
+        }
+        for (Token param : params) {
+            declare(param);
+        }
+        for (Statement stmt : stmts) {
+            walk(stmt);
+        }
+        endScope();
+        functionScope = enclosing;
+    }
+
+    // statements
+
+    @Override
+    public Void visitBlock(Block obj) {
+        beginScope();
+        for (Statement stmt : obj.stmts) {
+            walk(stmt);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitExpr(Expr obj) {
+        walk(obj.expr);
+        return null;
+    }
+
+    @Override
+    public Void visitPrint(Print obj) {
+        walk(obj.expr);
+        return null;
+    }
+
+    @Override
+    public Void visitVar(Var obj) {
+        walk(obj.initializer);
+        declare(obj.name);
+        return null;
+    }
+
+    @Override
+    public Void visitIfElse(IfElse obj) {
+        walk(obj.condition);
+        walk(obj.thenBranch);
+        walk(obj.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitWhile(While obj) {
+        walk(obj.codition);
+        walk(obj.body);
+        return null;
+    }
+
+    @Override
+    public Void visitFor(For obj) {
+        walk(obj.initializer);
+        walk(obj.condition);
+        walk(obj.change);
+        walk(obj.body);
+        return null;
+    }
+
+    @Override
+    public Void visitFunction(Function obj) {
+        declare(obj.name);
+        function(null, obj.params, obj.stmts);
+        return null;
+    }
+
+    @Override
+    public Void visitBreak(Break obj) {
+        return null;
+    }
+
+    @Override
+    public Void visitContinue(Continue obj) {
+        return null;
+    }
+
+    @Override
+    public Void visitReturn(Return obj) {
+        walk(obj.expr);
+        return null;
+    }
+
+    // expressions
+
+    @Override
+    public Void visitAssign(Assign obj) {
+        walk(obj.value);
+        return null;
+    }
+
+    @Override
+    public Void visitBinary(Binary obj) {
+        walk(obj.left);
+        walk(obj.right);
+        return null;
+    }
+
+    @Override
+    public Void visitUnary(Unary obj) {
+        walk(obj.expr);
+        return null;
+    }
+
+    @Override
+    public Void visitGrouping(Grouping obj) {
+        walk(obj.expr);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteral(Literal obj) {
+        return null;
+    }
+
+    @Override
+    public Void visitCommaSeperated(CommaSeperated obj) {
+        for (Expression expr : obj.expressions) {
+            walk(expr);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariable(Variable obj) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogical(Logical obj) {
+        walk(obj.left);
+        walk(obj.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCall(Call obj) {
+        walk(obj.callee);
+        for (Expression expr : obj.arguments) {
+            walk(expr);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitArrayLiteral(ArrayLiteral obj) {
+        for (Expression expr : obj.elements) {
+            walk(expr);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIndex(Index obj) {
+        walk(obj.array);
+        walk(obj.index);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexSet(IndexSet obj) {
+        walk(obj.array);
+        walk(obj.index);
+        walk(obj.value);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionExpr(FunctionExpr obj) {
+        function(obj.name, obj.params, obj.stmts);
+        return null;
+    }
+}
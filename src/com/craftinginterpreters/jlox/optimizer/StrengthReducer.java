@@ -0,0 +1,46 @@
+package com.craftinginterpreters.jlox.optimizer;
+
+import com.craftinginterpreters.jlox.syntax.Expression;
+import com.craftinginterpreters.jlox.syntax.Expression.Binary;
+import com.craftinginterpreters.jlox.syntax.Expression.Literal;
+import com.craftinginterpreters.jlox.syntax.Expression.Variable;
+import com.craftinginterpreters.jlox.syntax.Token;
+import com.craftinginterpreters.jlox.syntax.TokenType;
+
+/**
+ * Replaces a variable raised to the power 2 with a multiplication, which
+ * skips the call to Math.pow.
+ *
+ * Only squares are reduced: Math.pow(x, 2) is exactly x * x, while higher
+ * powers built from multiplications round differently in the last bit. The
+ * new operator keeps the lexeme of the old one, so a type error reports the
+ * same token as before.
+ */
+public class StrengthReducer extends AstTransformer {
+    private static final Double SQUARE = 2.0;
+    int reduced;
+
+    @Override
+    public Expression visitBinary(Binary obj) {
+        Expression expr = super.visitBinary(obj);
+        if (!(expr instanceof Binary)) {
+            return expr;
+        }
+        Binary binary = (Binary) expr;
+        if (binary.op.type != TokenType.STAR_STAR || !(binary.left instanceof Variable)
+                || !(binary.right instanceof Literal) || !SQUARE.equals(((Literal) binary.right).value)) {
+            return binary;
+        }
+        reduced++;
+        Token op = new Token(TokenType.STAR, binary.op.lexeme, null, binary.op.line);
+        Token name = ((Variable) binary.left).name;
+        return new Binary(binary.left, op, new Variable(copy(name)));
+    }
+
+    /** A new token for another use of the same variable, carrying the Resolver's annotation. */
+    static Token copy(Token name) {
+        Token token = new Token(name.type, name.lexeme, name.literal, name.line, name.symbol);
+        token.attachEnvData(name.slot, name.hops);
+        return token;
+    }
+}
@@ -37,7 +37,7 @@ import com.craftinginterpreters.jlox.tools.ErrorHandler;
  * varDeclaration → "var" IDENTIFIER ( "=" expression )? ";" ;
  * expression → assignment ;
  * commaSeperatedExpression → expression ( "," expression )* ;
- * assignment → IDENTIFIER "=" expression
+ * assignment → ( IDENTIFIER | call "[" expression "]" ) "=" expression
  *            | logic_or ;
  * logic_or → logic_and ( ("or" | "||") logic_or ) ;
  * logic_and → equality ( ("and" | "&&") logic_and ) ;
@@ -47,7 +47,7 @@ import com.craftinginterpreters.jlox.tools.ErrorHandler;
  * factor → unary ( ( "/" | "*" ) unary )* ;
  * unary → ( "!" | "-" ) unary
  *       | call ;
- * call → primary ( "(" arguments? ")" )* ;
+ * call → primary ( "(" arguments? ")" | "[" expression "]" )* ;
  * arguments → expression ( "," expression )
  * primary → NUMBER 
  *         | STRING 
@@ -56,6 +56,7 @@ import com.craftinginterpreters.jlox.tools.ErrorHandler;
  *         | "nil"
  *         | "(" commaSeperatedExpression ")"
  *         | IDENTIFIER
+ *         | "[" arguments? "]"
  *         | "fun" IDENTIFIER? "(" parameters? ")" blockStatement ;
  */
 
@@ -66,7 +67,13 @@ public class Parser {
     private int withinFunction;
 
     public Parser(List<Token> tokens) {
-        this.tokens = tokens;
+        this.tokens = new ArrayList<>(tokens.size());
+        for (Token token : tokens) {
+            // comments are kept by the scanner but carry no meaning for the grammar
+            if (token.type != TokenType.SINGLE_LINE_COMMENT && token.type != TokenType.MULTI_LINE_COMMENT) {
+                this.tokens.add(token);
+            }
+        }
         this.current = 0;
         this.withinLoop = 0;
     }
@@ -122,7 +129,8 @@ public class Parser {
             value = expression();
         }
         consume(TokenType.SEMICOLON, "expect ; after return value");
-        return new Statement.Return(keyword, value);
+        // nothing runs after a returned call, so it can replace the caller's frame
+        return new Statement.Return(keyword, value, value instanceof Expression.Call);
     }
 
     private Statement.Function functionStatement() {
@@ -150,6 +158,7 @@ public class Parser {
     }
 
     private Statement forStatement() {
+        Token keyword = previous();
         consume(TokenType.LEFT_PAREN, "missin ( after for");
         Statement initializer;
         if (match(TokenType.SEMICOLON)) {
@@ -175,13 +184,14 @@ public class Parser {
         try {
             this.withinLoop++;
             Statement body = statement();
-            return new Statement.For(initializer, condition, body, change);
+            return new Statement.For(keyword, initializer, condition, body, change);
         } finally {
             this.withinLoop--;
         }
     }
 
     private Statement whileStatament() {
+        Token keyword = previous();
         consume(TokenType.LEFT_PAREN, "missin ( after while");
         Expression condition;
         if (!check(TokenType.RIGHT_PAREN)) {
@@ -193,7 +203,7 @@ public class Parser {
         try {
             withinLoop++;
             Statement body = statement();
-            return new Statement.While(condition, body);
+            return new Statement.While(keyword, condition, body);
         } finally {
             withinLoop--;
         }
@@ -266,6 +276,10 @@ public class Parser {
                 Token name = ((Expression.Variable) expr).name;
                 return new Expression.Assign(name, value);
             }
+            if (expr instanceof Expression.Index) {
+                Expression.Index index = (Expression.Index) expr;
+                return new Expression.IndexSet(index.array, index.bracket, index.index, value);
+            }
             error(equals, "Invalid assignment target.");
         }
         return expr;
@@ -342,10 +356,17 @@ public class Parser {
 
     private Expression call() {
         Expression expr = primary();
-        while (match(TokenType.LEFT_PAREN)) {
-            expr = finishCall(expr);
+        for (;;) {
+            if (match(TokenType.LEFT_PAREN)) {
+                expr = finishCall(expr);
+            } else if (match(TokenType.LEFT_BRACKET)) {
+                Expression index = expression();
+                Token bracket = consume(TokenType.RIGHT_BRACKET, "expect ] after index");
+                expr = new Expression.Index(expr, bracket, index);
+            } else {
+                return expr;
+            }
         }
-        return expr;
     }
 
     private Expression finishCall(Expression callee) {
@@ -383,6 +404,17 @@ public class Parser {
             return new Expression.Variable(previous());
         }
 
+        if (match(TokenType.LEFT_BRACKET)) {
+            List<Expression> elements = new ArrayList<>();
+            if (!check(TokenType.RIGHT_BRACKET)) {
+                do {
+                    elements.add(expression());
+                } while (match(TokenType.COMMA));
+            }
+            Token bracket = consume(TokenType.RIGHT_BRACKET, "expect ] after array elements");
+            return new Expression.ArrayLiteral(bracket, elements);
+        }
+
         if (match(TokenType.LEFT_PAREN)) {
             Expression expr = expression();
             consume(TokenType.RIGHT_PAREN, "Expect ')' after expression.");
@@ -1,8 +1,7 @@
 package com.craftinginterpreters.jlox.parser;
 
-import java.util.Stack;
-import java.util.Map;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import com.craftinginterpreters.jlox.syntax.Statement;
@@ -20,25 +19,43 @@ import com.craftinginterpreters.jlox.syntax.Statement.Var;
 import com.craftinginterpreters.jlox.syntax.Statement.While;
 import com.craftinginterpreters.jlox.tools.ErrorHandler;
 import com.craftinginterpreters.jlox.tools.Logger;
+import com.craftinginterpreters.jlox.tools.Logger.Level;
 import com.craftinginterpreters.jlox.interpreter.RuntimeError;
+import com.craftinginterpreters.jlox.interpreter.LoxGlobalEnvironment;
+import com.craftinginterpreters.jlox.interpreter.Native;
 import com.craftinginterpreters.jlox.parser.ScopeData.VariableState;
 import com.craftinginterpreters.jlox.syntax.Expression;
+import com.craftinginterpreters.jlox.syntax.Expression.ArrayLiteral;
 import com.craftinginterpreters.jlox.syntax.Expression.Assign;
 import com.craftinginterpreters.jlox.syntax.Expression.Binary;
 import com.craftinginterpreters.jlox.syntax.Expression.Call;
 import com.craftinginterpreters.jlox.syntax.Expression.CommaSeperated;
 import com.craftinginterpreters.jlox.syntax.Expression.FunctionExpr;
 import com.craftinginterpreters.jlox.syntax.Expression.Grouping;
+import com.craftinginterpreters.jlox.syntax.Expression.Index;
+import com.craftinginterpreters.jlox.syntax.Expression.IndexSet;
 import com.craftinginterpreters.jlox.syntax.Expression.Literal;
 import com.craftinginterpreters.jlox.syntax.Expression.Logical;
 import com.craftinginterpreters.jlox.syntax.Expression.Unary;
 import com.craftinginterpreters.jlox.syntax.Expression.Variable;
 
 public class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Void> {
-    private final Stack<Map<String, ScopeData>> scopes;
+    private final List<Scope> scopes;
+    // innermost local bound to each symbol, or null where the name is a global
+    private ScopeData[] bindings = new ScopeData[256];
+    private final boolean reportUnused;
 
     public Resolver() {
-        this.scopes = new Stack<>();
+        this(true);
+    }
+
+    /**
+     * A resolver that does not report unused locals, for annotating a tree
+     * again after the optimizer removed some of their uses.
+     */
+    public Resolver(boolean reportUnused) {
+        this.scopes = new ArrayList<>();
+        this.reportUnused = reportUnused;
     }
 
     public void resolve(List<Statement> statements) {
@@ -57,6 +74,8 @@ public class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Voi
         for (Statement stmt: obj.stmts) {
             resolve(stmt);
         }   
+        obj.slots = peek().size();
+        obj.captured = peek().captured;
         endScope();
         return null;
     }
@@ -121,7 +140,7 @@ public class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Voi
     public Void visitFunction(Function obj) {
         declare(obj.name);
         define(obj.name);
-        beginScope();
+        beginFunctionScope();
         for (Token param: obj.params) {
             declare(param);
             define(param);
@@ -129,6 +148,7 @@ public class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Voi
         for (Statement stmt: obj.stmts) {
             resolve(stmt);
         }
+        obj.slots = peek().size();
         endScope();
         return null;
     }
@@ -211,14 +231,39 @@ public class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Voi
         for (Expression expr: obj.arguments) {
             resolve(expr);
         }
+        obj.intrinsic = intrinsic(obj);
+        return null;
+    }
+
+    @Override
+    public Void visitArrayLiteral(ArrayLiteral obj) {
+        for (Expression expr: obj.elements) {
+            resolve(expr);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIndex(Index obj) {
+        resolve(obj.array);
+        resolve(obj.index);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexSet(IndexSet obj) {
+        resolve(obj.array);
+        resolve(obj.index);
+        resolve(obj.value);
         return null;
     }
 
     @Override
     public Void visitFunctionExpr(FunctionExpr obj) {
+        beginFunctionScope();
         if (obj.name != null) {
-            declare(obj.name);
-            define(obj.name);
+            // a named function expression can refer to itself from its own body
+            defineSelf(obj.name);
         }
         for (Token param: obj.params) {
             declare(param);
@@ -227,6 +272,8 @@ public class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Voi
         for (Statement stmt: obj.stmts) {
             resolve(stmt);
         }
+        obj.slots = peek().size();
+        endScope();
         return null;
     }
 
@@ -239,80 +286,166 @@ public class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Voi
         expr.accept(this);
     }
 
+    private Scope peek() {
+        return scopes.get(scopes.size() - 1);
+    }
+
     private void beginScope() {
-        scopes.push(new HashMap<>());
+        scopes.add(new Scope(false));
+    }
+
+    private void beginFunctionScope() {
+        scopes.add(new Scope(true));
+    }
+
+    // a variable used from a function nested in its scope has to outlive the scope's frame
+    private void capture(int scope) {
+        for (int i = scope + 1; i < scopes.size(); i++) {
+            if (scopes.get(i).function) {
+                scopes.get(scope).captured = true;
+                return;
+            }
+        }
     }
 
     private void endScope() {
         if (scopes.isEmpty()) return;
-        Map<String, ScopeData> scope = scopes.peek();
-        scopes.pop();
-        for (Map.Entry<String, ScopeData> entry: scope.entrySet()) {
-            ScopeData value = entry.getValue();
-            if (value.state != ScopeData.VariableState.ACCESSED) {
+        Scope scope = scopes.remove(scopes.size() - 1);
+        for (ScopeData value: scope.names) {
+            bindings[value.name.symbol] = value.shadowed;
+            if (reportUnused && value.state != ScopeData.VariableState.ACCESSED) {
                 ErrorHandler.parseError(new ParseError(value.name, "variable declared but not accessed"));
             }
         }
     }
 
+    // the local the name refers to, or null for a global
+    private ScopeData lookup(Token name) {
+        return name.symbol < bindings.length ? bindings[name.symbol] : null;
+    }
+
+    // the binding of the name in the innermost scope, or null
+    private ScopeData lookupInScope(Token name) {
+        ScopeData data = lookup(name);
+        return data != null && data.scope == scopes.size() - 1 ? data : null;
+    }
+
+    // adds a binding to the innermost scope, replacing one of the same name there
+    private ScopeData bind(Token name, VariableState state) {
+        Scope scope = peek();
+        ScopeData replaced = lookupInScope(name);
+        ScopeData data = new ScopeData(name, scope.size(), scopes.size() - 1, state);
+        if (replaced != null) {
+            scope.names.set(scope.names.indexOf(replaced), data);
+            data.shadowed = replaced.shadowed;
+        } else {
+            scope.names.add(data);
+            data.shadowed = lookup(name);
+        }
+        if (name.symbol >= bindings.length) {
+            bindings = Arrays.copyOf(bindings, Math.max(bindings.length * 2, name.symbol + 1));
+        }
+        bindings[name.symbol] = data;
+        return data;
+    }
+
     private void declare(Token name) {
-        if (scopes.isEmpty())  return;
-        Map<String, ScopeData> scope = scopes.peek();
-        if (scope.containsKey(name.lexeme)) {
+        if (scopes.isEmpty()) {
+            resolveUsage(name, Token.GLOBAL, 0);
+            return;
+        }
+        if (lookupInScope(name) != null) {
             ErrorHandler.parseError(new ParseError(name, "variable with same name already declared in this scope"));
         }
-        scope.put(name.lexeme, new ScopeData(name, scope.size()));
+        ScopeData data = bind(name, VariableState.DECLARED);
+        resolveUsage(name, 0, data.slot);
     }
 
     private void define(Token name) {
-        if (scopes.isEmpty()) return;
-        Map<String, ScopeData> scope = scopes.peek();
-        if (scope.containsKey(name.lexeme)) {
-            scope.get(name.lexeme).state = ScopeData.VariableState.DEFINED;
+        if (scopes.isEmpty()) {
+            resolveUsage(name, Token.GLOBAL, 0);
+            return;
+        }
+        ScopeData data = lookupInScope(name);
+        if (data != null) {
+            data.state = ScopeData.VariableState.DEFINED;
         } else {
-            scope.put(name.lexeme, new ScopeData(name, scope.size(), VariableState.DEFINED));
+            data = bind(name, VariableState.DEFINED);
         }
+        resolveUsage(name, 0, data.slot);
+    }
+
+    private void defineSelf(Token name) {
+        ScopeData data = bind(name, VariableState.ACCESSED);
+        resolveUsage(name, 0, data.slot);
     }
 
     private void access(
         Expression expr, 
         Token name    
     ) {
-        Logger.trace(String.format("inside resolve for %s with scopes %d", name.lexeme, scopes.size() - 1));
-        for (int i = scopes.size() - 1; i >= 0; i--) {
-            Map<String, ScopeData> scope = scopes.get(i);
-            if (scope.containsKey(name.lexeme)) {
-                Logger.trace(String.format("inside resolve for %s trying %d out of %d", name.lexeme, i, scopes.size() - 1));
-                ScopeData data = scope.get(name.lexeme);
-                if (data.state == ScopeData.VariableState.DECLARED) {
-                    ErrorHandler.parseError(new ParseError(name, "accessing without being defined"));
-                } else {
-                    data.state = ScopeData.VariableState.ACCESSED;
-                    resolveUsage(name, scopes.size() - i - 1, data.slot);
-                }
-                return;
+        ScopeData data = lookup(name);
+        if (Logger.isEnabled(Level.TRACE)) {
+            Logger.trace(String.format("inside resolve for %s with scopes %d found in %d", name.lexeme,
+                    scopes.size() - 1, data == null ? Token.GLOBAL : data.scope));
+        }
+        if (data != null) {
+            if (data.state == ScopeData.VariableState.DECLARED) {
+                ErrorHandler.parseError(new ParseError(name, "accessing without being defined"));
+            } else {
+                data.state = ScopeData.VariableState.ACCESSED;
+                resolveUsage(name, scopes.size() - data.scope - 1, data.slot);
+                capture(data.scope);
             }
+            return;
         }
-        ErrorHandler.parseError(new ParseError(name, "trying to access an undeclared variable"));
+        // not found in any enclosing scope, so it is looked up at runtime among globals
+        resolveUsage(name, Token.GLOBAL, 0);
     }
 
     private void assign(
         Expression expr,
         Token name
     ) {
-        for (int i = scopes.size() - 1; i >= 0; i--) {
-            Map<String, ScopeData> scope = scopes.get(i);
-            if (scope.containsKey(name.lexeme)) {
-                ScopeData data = scope.get(name.lexeme);
-                data.state = ScopeData.VariableState.ACCESSED;
-                resolveUsage(name, scopes.size() - i - 1, data.slot);
-                return;
-            }
+        ScopeData data = lookup(name);
+        if (data != null) {
+            data.state = ScopeData.VariableState.ACCESSED;
+            resolveUsage(name, scopes.size() - data.scope - 1, data.slot);
+            capture(data.scope);
+            return;
+        }
+        resolveUsage(name, Token.GLOBAL, 0);
+    }
+
+    // a call of a global named after a native, with as many arguments as the native takes
+    private static Native intrinsic(Call obj) {
+        if (!(obj.callee instanceof Variable)) {
+            return null;
         }
-        ErrorHandler.parseError(new ParseError(name, "trying to assign an undeclared variable"));
+        Token name = ((Variable) obj.callee).name;
+        Native function = LoxGlobalEnvironment.intrinsic(name);
+        if (function == null || !name.isGlobal() || function.arity() != obj.arguments.size()) {
+            return null;
+        }
+        return function;
     }
 
     private void resolveUsage(Token name, int hops, int slot) {
-        name.attachEnvData(hops, slot);
+        name.attachEnvData(slot, hops);
+    }
+
+    /** The names declared in one scope, and whether a nested function uses any of them. */
+    private static class Scope {
+        final List<ScopeData> names = new ArrayList<>();
+        final boolean function;
+        boolean captured;
+
+        Scope(boolean function) {
+            this.function = function;
+        }
+
+        int size() {
+            return names.size();
+        }
     }
-}
\ No newline at end of file
+}
@@ -12,16 +12,18 @@ public class ScopeData {
     public final Token name;
     public VariableState state;
     public final int slot;
+    // index of the declaring scope, and the binding of the same name this one hides
+    final int scope;
+    ScopeData shadowed;
 
-    ScopeData(Token name, int slot) {
-        this.name = name;
-        this.slot = slot;
-        this.state = VariableState.DECLARED;
+    ScopeData(Token name, int slot, int scope) {
+        this(name, slot, scope, VariableState.DECLARED);
     }
 
-    ScopeData(Token name, int slot, VariableState state) {
+    ScopeData(Token name, int slot, int scope, VariableState state) {
         this.name = name;
         this.slot = slot;
+        this.scope = scope;
         this.state = state;
     }
 }
@@ -6,10 +6,12 @@ import java.util.List;
 import java.util.Map;
 
 import com.craftinginterpreters.jlox.Constants;
+import com.craftinginterpreters.jlox.syntax.Symbols;
 import com.craftinginterpreters.jlox.syntax.Token;
 import com.craftinginterpreters.jlox.syntax.TokenType;
 import com.craftinginterpreters.jlox.tools.ErrorHandler;
 import com.craftinginterpreters.jlox.tools.Logger;
+import com.craftinginterpreters.jlox.tools.Logger.Level;
 
 public class Scanner {
     private int current;
@@ -18,6 +20,7 @@ public class Scanner {
     private String source;
 
     private List<Token> tokens;
+    private final Symbols symbols;
 
     public Scanner(String source) {
         this.source = source;
@@ -25,6 +28,15 @@ public class Scanner {
         this.start = 0;
         this.line = 1;
         this.tokens = new ArrayList<Token>();
+        this.symbols = new Symbols();
+        for (String keyword : keywordNames) {
+            symbols.intern(keyword);
+        }
+    }
+
+    /** The names and string literals of the scanned program; tokens carry their ids. */
+    public Symbols symbols() {
+        return symbols;
     }
 
     public List<Token> scanTokens() {
@@ -66,6 +78,16 @@ public class Scanner {
                 addToken(TokenType.RIGHT_BRACE);
                 break;
             }
+            case '[': {
+                advance();
+                addToken(TokenType.LEFT_BRACKET);
+                break;
+            }
+            case ']': {
+                advance();
+                addToken(TokenType.RIGHT_BRACKET);
+                break;
+            }
             case '+': {
                 advance();
                 addToken(TokenType.PLUS);
@@ -222,7 +244,7 @@ public class Scanner {
                 advance();
                 c = peek();
             }
-            addToken(TokenType.IDENTIFIER, getCurrentLiteral());
+            addIdentifier();
             return;
         }
         advance();
@@ -236,7 +258,7 @@ public class Scanner {
             char c = peek();
             if (c == startQuote) {
                 advance();
-                addToken(TokenType.STRING, buf.toString());
+                addToken(TokenType.STRING, symbols.name(symbols.intern(buf, 0, buf.length())));
                 return;
             } else if (c == Constants.EOL_CHAR) {
                 advance();
@@ -353,19 +375,38 @@ public class Scanner {
     }
 
     // token functions
+    // operators and punctuation always have the same text, so one String per type is kept
     void addToken(TokenType type) {
-        addToken(type, null);
+        String text = fixedLexemes[type.ordinal()];
+        if (text == null) {
+            text = getCurrentLiteral();
+            fixedLexemes[type.ordinal()] = text;
+        }
+        add(new Token(type, text, null, this.line, Symbols.NONE));
     }
 
     void addToken(TokenType type, Object literal) {
-        Logger.trace(String.format("scanner:add_token <line : %d> %s %s", this.line, type.name(), (literal == null ? "<null>" : literal.toString())));
-        if (type == TokenType.IDENTIFIER) {
-            type = Scanner.keywords.getOrDefault(literal, TokenType.IDENTIFIER);
+        add(new Token(type, getCurrentLiteral(), literal, this.line, Symbols.NONE));
+    }
+
+    // names and keywords are interned straight from the source, see Symbols
+    private void addIdentifier() {
+        int symbol = symbols.intern(this.source, this.start, this.current);
+        TokenType type = symbol < keywordTypes.length ? keywordTypes[symbol] : TokenType.IDENTIFIER;
+        String name = symbols.name(symbol);
+        add(new Token(type, name, name, this.line, type == TokenType.IDENTIFIER ? symbol : Symbols.NONE));
+    }
+
+    private void add(Token token) {
+        if (Logger.isEnabled(Level.TRACE)) {
+            Logger.trace(String.format("scanner:add_token <line : %d> %s %s", token.line, token.type.name(),
+                    (token.literal == null ? "<null>" : token.literal.toString())));
         }
-        String text = getCurrentLiteral();
-        this.tokens.add(new Token(type, text, literal, this.line));
+        this.tokens.add(token);
     }
 
+    private final String[] fixedLexemes = new String[TokenType.values().length];
+
     // keywords
     private static final Map<String, TokenType> keywords;
     static {
@@ -389,4 +430,13 @@ public class Scanner {
         keywords.put("break", TokenType.BREAK);
         keywords.put("continue", TokenType.CONTINUE);
     }
-}
\ No newline at end of file
+
+    // every table starts with the keywords, so a symbol below keywordTypes.length is that keyword
+    private static final String[] keywordNames = keywords.keySet().toArray(new String[0]);
+    private static final TokenType[] keywordTypes = new TokenType[keywordNames.length];
+    static {
+        for (int i = 0; i < keywordNames.length; i++) {
+            keywordTypes[i] = keywords.get(keywordNames[i]);
+        }
+    }
+}
@@ -136,6 +136,58 @@ public abstract class Expression {
 		public final Expression callee;
 		public final Token paren;
 		public final List<Expression> arguments;
+		public Object intrinsic;
+	}
+
+	public static class ArrayLiteral extends Expression {
+		public ArrayLiteral(Token bracket, List<Expression> elements) {
+			this.bracket = bracket;
+			this.elements = elements;
+		}
+
+		@Override
+		public <R> R accept(Visitor<R> visitor) {
+			return visitor.visitArrayLiteral(this);
+		}
+
+		public final Token bracket;
+		public final List<Expression> elements;
+	}
+
+	public static class Index extends Expression {
+		public Index(Expression array, Token bracket, Expression index) {
+			this.array = array;
+			this.bracket = bracket;
+			this.index = index;
+		}
+
+		@Override
+		public <R> R accept(Visitor<R> visitor) {
+			return visitor.visitIndex(this);
+		}
+
+		public final Expression array;
+		public final Token bracket;
+		public final Expression index;
+	}
+
+	public static class IndexSet extends Expression {
+		public IndexSet(Expression array, Token bracket, Expression index, Expression value) {
+			this.array = array;
+			this.bracket = bracket;
+			this.index = index;
+			this.value = value;
+		}
+
+		@Override
+		public <R> R accept(Visitor<R> visitor) {
+			return visitor.visitIndexSet(this);
+		}
+
+		public final Expression array;
+		public final Token bracket;
+		public final Expression index;
+		public final Expression value;
 	}
 
 	public static class FunctionExpr extends Expression {
@@ -153,6 +205,9 @@ public abstract class Expression {
 		public final Token name;
 		public final List<Token> params;
 		public final List<Statement> stmts;
+		public int slots;
+		public int frameSize;
+		public int[] upvalues;
 	}
 	public interface Visitor<T> {
 
@@ -174,6 +229,12 @@ public abstract class Expression {
 
 		T visitCall(Expression.Call obj);
 
+		T visitArrayLiteral(Expression.ArrayLiteral obj);
+
+		T visitIndex(Expression.Index obj);
+
+		T visitIndexSet(Expression.IndexSet obj);
+
 		T visitFunctionExpr(Expression.FunctionExpr obj);
 	}
 }
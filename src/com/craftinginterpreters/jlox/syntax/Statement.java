@@ -16,6 +16,9 @@ public abstract class Statement {
 		}
 
 		public final List<Statement> stmts;
+		public int slots;
+		public boolean captured;
+		public int offset;
 	}
 
 	public static class Expr extends Statement {
@@ -77,7 +80,8 @@ public abstract class Statement {
 	}
 
 	public static class While extends Statement {
-		public While(Expression codition, Statement body) {
+		public While(Token keyword, Expression codition, Statement body) {
+			this.keyword = keyword;
 			this.codition = codition;
 			this.body = body;
 		}
@@ -87,12 +91,14 @@ public abstract class Statement {
 			return visitor.visitWhile(this);
 		}
 
+		public final Token keyword;
 		public final Expression codition;
 		public final Statement body;
 	}
 
 	public static class For extends Statement {
-		public For(Statement initializer, Expression condition, Statement body, Expression change) {
+		public For(Token keyword, Statement initializer, Expression condition, Statement body, Expression change) {
+			this.keyword = keyword;
 			this.initializer = initializer;
 			this.condition = condition;
 			this.body = body;
@@ -104,6 +110,7 @@ public abstract class Statement {
 			return visitor.visitFor(this);
 		}
 
+		public final Token keyword;
 		public final Statement initializer;
 		public final Expression condition;
 		public final Statement body;
@@ -125,6 +132,9 @@ public abstract class Statement {
 		public final Token name;
 		public final List<Token> params;
 		public final List<Statement> stmts;
+		public int slots;
+		public int frameSize;
+		public int[] upvalues;
 	}
 
 	public static class Break extends Statement {
@@ -150,9 +160,10 @@ public abstract class Statement {
 	}
 
 	public static class Return extends Statement {
-		public Return(Token keyword, Expression expr) {
+		public Return(Token keyword, Expression expr, boolean tailCall) {
 			this.keyword = keyword;
 			this.expr = expr;
+			this.tailCall = tailCall;
 		}
 
 		@Override
@@ -162,6 +173,7 @@ public abstract class Statement {
 
 		public final Token keyword;
 		public final Expression expr;
+		public final boolean tailCall;
 	}
 	public interface Visitor<T> {
 
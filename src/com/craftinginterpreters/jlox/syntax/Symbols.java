@@ -0,0 +1,95 @@
+package com.craftinginterpreters.jlox.syntax;
+
+import java.util.Arrays;
+
+/**
+ * The names and string literals of one program. Each distinct text is a
+ * symbol: a small id, given in order of first use, and one canonical String,
+ * so tokens with the same name share their lexeme and equal string literals
+ * are the same object.
+ *
+ * Text is looked up by a range of the source, so a name that was seen before
+ * allocates nothing. The scanner creates a table for every program it scans
+ * and the optimizer adds its temporaries to it; nothing else holds on to it,
+ * so it is dropped with the program's tokens. One thread compiles a program,
+ * so the table is not locked.
+ */
+public final class Symbols {
+    public static final int NONE = -1;
+
+    private String[] names = new String[256];
+    private int[] hashes = new int[256];
+    private int count;
+    // open addressing by hash; an entry is a symbol id + 1, and 0 is free
+    private int[] table = new int[512];
+
+    public int intern(String text) {
+        return intern(text, 0, text.length());
+    }
+
+    /** The symbol of text.subSequence(start, end), added if it is new. */
+    public int intern(CharSequence text, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        int mask = table.length - 1;
+        int index = mix(hash) & mask;
+        while (table[index] != 0) {
+            int symbol = table[index] - 1;
+            if (hashes[symbol] == hash && matches(names[symbol], text, start, end)) {
+                return symbol;
+            }
+            index = (index + 1) & mask;
+        }
+        return add(text.subSequence(start, end).toString(), hash, index);
+    }
+
+    public String name(int symbol) {
+        return names[symbol];
+    }
+
+    private int add(String name, int hash, int index) {
+        if (count == names.length) {
+            names = Arrays.copyOf(names, count * 2);
+            hashes = Arrays.copyOf(hashes, count * 2);
+        }
+        int symbol = count++;
+        names[symbol] = name;
+        hashes[symbol] = hash;
+        table[index] = symbol + 1;
+        if (count * 2 > table.length) {
+            rehash();
+        }
+        return symbol;
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        for (int symbol = 0; symbol < count; symbol++) {
+            int index = mix(hashes[symbol]) & mask;
+            while (table[index] != 0) {
+                index = (index + 1) & mask;
+            }
+            table[index] = symbol + 1;
+        }
+    }
+
+    // spreads the high bits of a String hash over the low ones the table uses
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean matches(String name, CharSequence text, int start, int end) {
+        if (name.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != text.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
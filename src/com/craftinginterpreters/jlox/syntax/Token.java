@@ -5,15 +5,32 @@ public class Token {
     public final String lexeme;
     public final Object literal;
     public final int line;
+    // the Symbols id of an identifier's name, otherwise Symbols.NONE
+    public final int symbol;
+
+    public static final int GLOBAL = -1;
 
     public int slot;
-    public int hops;
+    public int hops = GLOBAL;
+
+    // where the tree-walker keeps a local: an offset into the frame of the
+    // function using it, or NOT_ON_STACK and an upvalue of that function
+    // (see FrameLayout)
+    public static final int NOT_ON_STACK = -1;
+    public int stackSlot = NOT_ON_STACK;
+    public int upvalue;
 
     public Token(TokenType type, String lexeme, Object literal, int line) {
+        this(type, lexeme, literal, line, Symbols.NONE);
+    }
+
+    /** A token for a name, which is the given symbol of its program's {@link Symbols}. */
+    public Token(TokenType type, String lexeme, Object literal, int line, int symbol) {
         this.type = type;
         this.lexeme = lexeme;
         this.literal = literal;
         this.line = line;
+        this.symbol = symbol;
     }
 
     public String toString() {
@@ -24,4 +41,8 @@ public class Token {
         this.slot = slot;
         this.hops = hops;
     }
+
+    public boolean isGlobal() {
+        return this.hops == GLOBAL;
+    }
 }
\ No newline at end of file
@@ -3,12 +3,15 @@ package com.craftinginterpreters.jlox.tools;
 import java.util.List;
 import java.util.ArrayList;
 import com.craftinginterpreters.jlox.syntax.Expression;
+import com.craftinginterpreters.jlox.syntax.Expression.ArrayLiteral;
 import com.craftinginterpreters.jlox.syntax.Expression.Assign;
 import com.craftinginterpreters.jlox.syntax.Expression.Binary;
 import com.craftinginterpreters.jlox.syntax.Expression.Call;
 import com.craftinginterpreters.jlox.syntax.Expression.CommaSeperated;
 import com.craftinginterpreters.jlox.syntax.Expression.FunctionExpr;
 import com.craftinginterpreters.jlox.syntax.Expression.Grouping;
+import com.craftinginterpreters.jlox.syntax.Expression.Index;
+import com.craftinginterpreters.jlox.syntax.Expression.IndexSet;
 import com.craftinginterpreters.jlox.syntax.Expression.Literal;
 import com.craftinginterpreters.jlox.syntax.Expression.Logical;
 import com.craftinginterpreters.jlox.syntax.Expression.Unary;
@@ -162,6 +165,21 @@ public class AstPrinter implements Expression.Visitor<String>, Statement.Visitor
         return "call";
     }
 
+    @Override
+    public String visitArrayLiteral(ArrayLiteral obj) {
+        return "array";
+    }
+
+    @Override
+    public String visitIndex(Index obj) {
+        return "index";
+    }
+
+    @Override
+    public String visitIndexSet(IndexSet obj) {
+        return "indexSet";
+    }
+
     @Override
     public String visitFunctionExpr(FunctionExpr obj) {
         return "functionExpression";
@@ -1,5 +1,6 @@
 package com.craftinginterpreters.jlox.tools;
 
+import com.craftinginterpreters.jlox.interpreter.Interrupted;
 import com.craftinginterpreters.jlox.interpreter.RuntimeError;
 import com.craftinginterpreters.jlox.parser.ParseError;
 import com.craftinginterpreters.jlox.syntax.TokenType;
@@ -33,7 +34,12 @@ public class ErrorHandler {
     }
 
     public static void runtimeError(RuntimeError error) {
-        System.err.println("[line " + error.token.line + "] Error: " + error.getMessage() + " near token " + error.token.lexeme);
+        if (error instanceof Interrupted) {
+            System.err.println("Error: " + error.getMessage());
+        } else {
+            System.err.println("[line " + error.token.line + "] Error: " + error.getMessage() + " near token " + error.token.lexeme);
+        }
         hadRuntimeError = true;
+        Metrics.runtimeErrors.increment();
     }
 }
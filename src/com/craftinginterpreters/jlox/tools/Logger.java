@@ -17,6 +17,11 @@ public class Logger {
         Logger.level = Math.min(Level.ERROR, Math.max(0, level));
     }
 
+    /** Whether messages of the level are printed, so callers can skip formatting them. */
+    public static boolean isEnabled(int level) {
+        return Logger.level <= level;
+    }
+
     public static void error(String formattedString) {
         if (Logger.level <= Level.ERROR) {
             print("ERROR", formattedString);
@@ -0,0 +1,114 @@
+package com.craftinginterpreters.jlox.tools;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters for a JVM running jlox, shared by every engine and exposed as
+ * the platform MBean {@value #OBJECT_NAME}. They are LongAdders, so threads
+ * running scripts side by side do not contend on them. The tree engine counts
+ * its statements and calls in plain fields and adds them here in batches,
+ * so no counter is touched per statement.
+ */
+public final class Metrics implements MetricsMBean {
+    public static final String OBJECT_NAME = "com.craftinginterpreters.jlox:type=Metrics";
+
+    public static final LongAdder statementsExecuted = new LongAdder();
+    public static final LongAdder loxFunctionCalls = new LongAdder();
+    public static final LongAdder nativeCalls = new LongAdder();
+    public static final LongAdder upvaluesCaptured = new LongAdder();
+    public static final LongAdder runtimeErrors = new LongAdder();
+    // time spent in each phase of Lox.run
+    public static final LongAdder scanNanos = new LongAdder();
+    public static final LongAdder parseNanos = new LongAdder();
+    public static final LongAdder resolveNanos = new LongAdder();
+    public static final LongAdder optimizeNanos = new LongAdder();
+    public static final LongAdder executeNanos = new LongAdder();
+
+    private static boolean registered;
+
+    private Metrics() {
+    }
+
+    /** Registers the MBean with the platform MBean server; later calls do nothing. */
+    public static synchronized void register() {
+        if (registered) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new Metrics(), new ObjectName(OBJECT_NAME));
+            registered = true;
+        } catch (JMException e) {
+            Logger.warn(String.format("metrics: cannot register %s: %s", OBJECT_NAME, e.getMessage()));
+        }
+    }
+
+    /** Writes every counter as a "name value" line. */
+    public static void dump(PrintStream out) {
+        MetricsMBean metrics = new Metrics();
+        out.println("statementsExecuted " + metrics.getStatementsExecuted());
+        out.println("loxFunctionCalls " + metrics.getLoxFunctionCalls());
+        out.println("nativeCalls " + metrics.getNativeCalls());
+        out.println("upvaluesCaptured " + metrics.getUpvaluesCaptured());
+        out.println("runtimeErrors " + metrics.getRuntimeErrors());
+        out.println("scanNanos " + metrics.getScanNanos());
+        out.println("parseNanos " + metrics.getParseNanos());
+        out.println("resolveNanos " + metrics.getResolveNanos());
+        out.println("optimizeNanos " + metrics.getOptimizeNanos());
+        out.println("executeNanos " + metrics.getExecuteNanos());
+    }
+
+    @Override
+    public long getStatementsExecuted() {
+        return statementsExecuted.sum();
+    }
+
+    @Override
+    public long getLoxFunctionCalls() {
+        return loxFunctionCalls.sum();
+    }
+
+    @Override
+    public long getNativeCalls() {
+        return nativeCalls.sum();
+    }
+
+    @Override
+    public long getUpvaluesCaptured() {
+        return upvaluesCaptured.sum();
+    }
+
+    @Override
+    public long getRuntimeErrors() {
+        return runtimeErrors.sum();
+    }
+
+    @Override
+    public long getScanNanos() {
+        return scanNanos.sum();
+    }
+
+    @Override
+    public long getParseNanos() {
+        return parseNanos.sum();
+    }
+
+    @Override
+    public long getResolveNanos() {
+        return resolveNanos.sum();
+    }
+
+    @Override
+    public long getOptimizeNanos() {
+        return optimizeNanos.sum();
+    }
+
+    @Override
+    public long getExecuteNanos() {
+        return executeNanos.sum();
+    }
+}
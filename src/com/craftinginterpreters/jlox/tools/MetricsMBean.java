@@ -0,0 +1,39 @@
+package com.craftinginterpreters.jlox.tools;
+
+/**
+ * The attributes {@link Metrics} exposes over JMX. The run counters come
+ * from the {@code tree} engine only; the {@code closure} and {@code vm}
+ * engines leave them at zero, and under {@code --jit} neither the
+ * statements of compiled functions nor the calls they make are counted.
+ * Runtime errors and phase times are recorded for every engine.
+ */
+public interface MetricsMBean {
+    /** Statements the tree engine ran. */
+    long getStatementsExecuted();
+
+    /** Calls of Lox functions made by the tree engine. */
+    long getLoxFunctionCalls();
+
+    /** Calls of natives made by the tree engine. */
+    long getNativeCalls();
+
+    /**
+     * Upvalues the tree engine created for variables captured by closures.
+     * This stands in for environments allocated: a call's frame is a slice
+     * of the value stack, and an upvalue is the only allocation a variable
+     * still gets, so there are no environments left to count.
+     */
+    long getUpvaluesCaptured();
+
+    long getRuntimeErrors();
+
+    long getScanNanos();
+
+    long getParseNanos();
+
+    long getResolveNanos();
+
+    long getOptimizeNanos();
+
+    long getExecuteNanos();
+}
@@ -0,0 +1,668 @@
+package com.craftinginterpreters.jlox.vm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.craftinginterpreters.jlox.interpreter.RuntimeError;
+import com.craftinginterpreters.jlox.syntax.Expression;
+import com.craftinginterpreters.jlox.syntax.Expression.ArrayLiteral;
+import com.craftinginterpreters.jlox.syntax.Expression.Assign;
+import com.craftinginterpreters.jlox.syntax.Expression.Binary;
+import com.craftinginterpreters.jlox.syntax.Expression.Call;
+import com.craftinginterpreters.jlox.syntax.Expression.CommaSeperated;
+import com.craftinginterpreters.jlox.syntax.Expression.FunctionExpr;
+import com.craftinginterpreters.jlox.syntax.Expression.Grouping;
+import com.craftinginterpreters.jlox.syntax.Expression.Index;
+import com.craftinginterpreters.jlox.syntax.Expression.IndexSet;
+import com.craftinginterpreters.jlox.syntax.Expression.Literal;
+import com.craftinginterpreters.jlox.syntax.Expression.Logical;
+import com.craftinginterpreters.jlox.syntax.Expression.Unary;
+import com.craftinginterpreters.jlox.syntax.Expression.Variable;
+import com.craftinginterpreters.jlox.syntax.Statement;
+import com.craftinginterpreters.jlox.syntax.Statement.Block;
+import com.craftinginterpreters.jlox.syntax.Statement.Break;
+import com.craftinginterpreters.jlox.syntax.Statement.Continue;
+import com.craftinginterpreters.jlox.syntax.Statement.Expr;
+import com.craftinginterpreters.jlox.syntax.Statement.For;
+import com.craftinginterpreters.jlox.syntax.Statement.Function;
+import com.craftinginterpreters.jlox.syntax.Statement.IfElse;
+import com.craftinginterpreters.jlox.syntax.Statement.Print;
+import com.craftinginterpreters.jlox.syntax.Statement.Return;
+import com.craftinginterpreters.jlox.syntax.Statement.Var;
+import com.craftinginterpreters.jlox.syntax.Statement.While;
+import com.craftinginterpreters.jlox.syntax.Token;
+
+/**
+ * Compiles a resolved program into bytecode for the {@link VM}.
+ *
+ * The Resolver's (hops, slot) pair identifies the declaring scope of every
+ * local. This compiler mirrors the Resolver's scope stack, gives every local
+ * a fixed slot in its function's frame (sibling blocks share slots) and turns
+ * accesses to locals of enclosing functions into upvalues.
+ */
+public class BytecodeCompiler implements Expression.Visitor<Void>, Statement.Visitor<Void> {
+    private static class FunctionState {
+        final FunctionState enclosing;
+        final Chunk chunk;
+        // pairs of (isLocal, index) describing where each upvalue is captured from
+        final List<int[]> upvalues;
+        final List<Loop> loops;
+        int nextSlot;
+        int frameSize;
+        // operand stack height above the locals, tracked to size the VM stack
+        int depth;
+        int maxDepth;
+
+        FunctionState(FunctionState enclosing) {
+            this.enclosing = enclosing;
+            this.chunk = new Chunk();
+            this.upvalues = new ArrayList<>();
+            this.loops = new ArrayList<>();
+            this.nextSlot = 1;
+            this.frameSize = 1;
+        }
+
+        int maxStack() {
+            return frameSize + maxDepth;
+        }
+    }
+
+    private static class Scope {
+        final FunctionState function;
+        final int base;
+        // resolver slot -> frame slot
+        int[] slots;
+        boolean captured;
+
+        Scope(FunctionState function, int base) {
+            this.function = function;
+            this.base = base;
+            this.slots = new int[4];
+        }
+    }
+
+    private static class Loop {
+        final int scopeDepth;
+        final List<Integer> breakJumps = new ArrayList<>();
+        final List<Integer> continueJumps = new ArrayList<>();
+
+        Loop(int scopeDepth) {
+            this.scopeDepth = scopeDepth;
+        }
+    }
+
+    private final List<Scope> scopes;
+    private FunctionState current;
+    // the last token emitted, where a function that outgrows the bytecode limits is reported
+    private Token lastToken;
+
+    BytecodeCompiler() {
+        this.scopes = new ArrayList<>();
+    }
+
+    FunctionProto compile(List<Statement> statements) {
+        current = new FunctionState(null);
+        for (Statement stmt : statements) {
+            compile(stmt);
+        }
+        emit(OpCode.NIL, null);
+        emit(OpCode.RETURN, null);
+        return new FunctionProto("<script>", 0, current.frameSize, current.maxStack(), 0, current.chunk);
+    }
+
+    // statements
+
+    @Override
+    public Void visitBlock(Block obj) {
+        beginScope();
+        for (Statement stmt : obj.stmts) {
+            compile(stmt);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitExpr(Expr obj) {
+        compile(obj.expr);
+        emit(OpCode.POP, null);
+        return null;
+    }
+
+    @Override
+    public Void visitPrint(Print obj) {
+        compile(obj.expr);
+        emit(OpCode.PRINT, null);
+        return null;
+    }
+
+    @Override
+    public Void visitVar(Var obj) {
+        declare(obj.name);
+        if (obj.initializer != null) {
+            compile(obj.initializer);
+        } else {
+            emit(OpCode.NIL, null);
+        }
+        defineVariable(obj.name);
+        return null;
+    }
+
+    @Override
+    public Void visitIfElse(IfElse obj) {
+        compile(obj.condition);
+        int thenJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP, null);
+        compile(obj.thenBranch);
+        int elseJump = emitJump(OpCode.JUMP);
+        patchJump(thenJump);
+        // the condition is still on the stack when the then branch is skipped
+        current.depth++;
+        emit(OpCode.POP, null);
+        if (obj.elseBranch != null) {
+            compile(obj.elseBranch);
+        }
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitWhile(While obj) {
+        int loopStart = current.chunk.count;
+        compile(obj.codition);
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP, null);
+        Loop loop = beginLoop();
+        compile(obj.body);
+        patchJumps(loop.continueJumps);
+        emitLoop(loopStart);
+        patchJump(exitJump);
+        current.depth++;
+        emit(OpCode.POP, null);
+        endLoop(loop);
+        return null;
+    }
+
+    @Override
+    public Void visitFor(For obj) {
+        if (obj.initializer != null) {
+            compile(obj.initializer);
+        }
+        int loopStart = current.chunk.count;
+        compile(obj.condition);
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP, null);
+        Loop loop = beginLoop();
+        compile(obj.body);
+        patchJumps(loop.continueJumps);
+        if (obj.change != null) {
+            compile(obj.change);
+            emit(OpCode.POP, null);
+        }
+        emitLoop(loopStart);
+        patchJump(exitJump);
+        current.depth++;
+        emit(OpCode.POP, null);
+        endLoop(loop);
+        return null;
+    }
+
+    @Override
+    public Void visitFunction(Function obj) {
+        declare(obj.name);
+        function(obj.name, false, obj.params, obj.stmts);
+        defineVariable(obj.name);
+        return null;
+    }
+
+    @Override
+    public Void visitBreak(Break obj) {
+        Loop loop = current.loops.get(current.loops.size() - 1);
+        closeScopesAbove(loop.scopeDepth);
+        loop.breakJumps.add(emitJump(OpCode.JUMP));
+        return null;
+    }
+
+    @Override
+    public Void visitContinue(Continue obj) {
+        Loop loop = current.loops.get(current.loops.size() - 1);
+        closeScopesAbove(loop.scopeDepth);
+        loop.continueJumps.add(emitJump(OpCode.JUMP));
+        return null;
+    }
+
+    @Override
+    public Void visitReturn(Return obj) {
+        if (obj.expr != null) {
+            compile(obj.expr);
+        } else {
+            emit(OpCode.NIL, null);
+        }
+        emit(OpCode.RETURN, obj.keyword);
+        return null;
+    }
+
+    // expressions
+
+    @Override
+    public Void visitAssign(Assign obj) {
+        compile(obj.value);
+        Token name = obj.name;
+        if (name.isGlobal()) {
+            emit(OpCode.SET_GLOBAL, name);
+            current.chunk.writeShort(constant(name));
+            return null;
+        }
+        Scope scope = scopeOf(name);
+        int slot = scope.slots[name.slot];
+        if (scope.function == current) {
+            emit(OpCode.SET_LOCAL, name);
+            current.chunk.writeShort(slot);
+        } else {
+            emit(OpCode.SET_UPVALUE, name);
+            current.chunk.writeShort(resolveUpvalue(current, scope, slot));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinary(Binary obj) {
+        compile(obj.left);
+        compile(obj.right);
+        switch (obj.op.type) {
+            case PLUS:
+                emit(OpCode.ADD, obj.op);
+                break;
+            case MINUS:
+                emit(OpCode.SUBTRACT, obj.op);
+                break;
+            case STAR:
+                emit(OpCode.MULTIPLY, obj.op);
+                break;
+            case SLASH:
+                emit(OpCode.DIVIDE, obj.op);
+                break;
+            case STAR_STAR:
+                emit(OpCode.POWER, obj.op);
+                break;
+            case GREATER:
+                emit(OpCode.GREATER, obj.op);
+                break;
+            case GREATER_EQUAL:
+                emit(OpCode.GREATER_EQUAL, obj.op);
+                break;
+            case LESS:
+                emit(OpCode.LESS, obj.op);
+                break;
+            case LESS_EQUAL:
+                emit(OpCode.LESS_EQUAL, obj.op);
+                break;
+            case EQUAL_EQUAL:
+                emit(OpCode.EQUAL, obj.op);
+                break;
+            case BANG_EQUAL:
+                emit(OpCode.NOT_EQUAL, obj.op);
+                break;
+            default:
+                throw new RuntimeError(obj.op, "Invalid binary operator.");
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnary(Unary obj) {
+        compile(obj.expr);
+        switch (obj.op.type) {
+            case MINUS:
+                emit(OpCode.NEGATE, obj.op);
+                break;
+            case BANG:
+                emit(OpCode.NOT, obj.op);
+                break;
+            default:
+                throw new RuntimeError(obj.op, "Invalid binary operator.");
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGrouping(Grouping obj) {
+        compile(obj.expr);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteral(Literal obj) {
+        if (obj.value == null) {
+            emit(OpCode.NIL, null);
+        } else if (Boolean.TRUE.equals(obj.value)) {
+            emit(OpCode.TRUE, null);
+        } else if (Boolean.FALSE.equals(obj.value)) {
+            emit(OpCode.FALSE, null);
+        } else {
+            emit(OpCode.CONSTANT, null);
+            current.chunk.writeShort(constant(obj.value));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCommaSeperated(CommaSeperated obj) {
+        for (int i = 0; i < obj.expressions.size(); i++) {
+            if (i > 0) {
+                emit(OpCode.POP, null);
+            }
+            compile(obj.expressions.get(i));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariable(Variable obj) {
+        Token name = obj.name;
+        if (name.isGlobal()) {
+            emit(OpCode.GET_GLOBAL, name);
+            current.chunk.writeShort(constant(name));
+            return null;
+        }
+        Scope scope = scopeOf(name);
+        int slot = scope.slots[name.slot];
+        if (scope.function == current) {
+            emit(OpCode.GET_LOCAL, name);
+            current.chunk.writeShort(slot);
+        } else {
+            emit(OpCode.GET_UPVALUE, name);
+            current.chunk.writeShort(resolveUpvalue(current, scope, slot));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogical(Logical obj) {
+        compile(obj.left);
+        switch (obj.op.type) {
+            case OR: {
+                int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+                int endJump = emitJump(OpCode.JUMP);
+                patchJump(elseJump);
+                emit(OpCode.POP, null);
+                compile(obj.right);
+                patchJump(endJump);
+                break;
+            }
+            case AND: {
+                int endJump = emitJump(OpCode.JUMP_IF_FALSE);
+                emit(OpCode.POP, null);
+                compile(obj.right);
+                patchJump(endJump);
+                break;
+            }
+            default:
+                emit(OpCode.POP, null);
+                compile(obj.right);
+                break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCall(Call obj) {
+        compile(obj.callee);
+        for (Expression arg : obj.arguments) {
+            compile(arg);
+        }
+        emit(OpCode.CALL, obj.paren);
+        current.chunk.write((byte) obj.arguments.size(), null);
+        current.depth -= obj.arguments.size();
+        return null;
+    }
+
+    @Override
+    public Void visitArrayLiteral(ArrayLiteral obj) {
+        for (Expression element : obj.elements) {
+            compile(element);
+        }
+        if (obj.elements.size() > 0xffff) {
+            throw new RuntimeError(obj.bracket, "too many elements in an array literal");
+        }
+        emit(OpCode.ARRAY, obj.bracket);
+        current.chunk.writeShort(obj.elements.size());
+        current.depth -= obj.elements.size();
+        return null;
+    }
+
+    @Override
+    public Void visitIndex(Index obj) {
+        compile(obj.array);
+        compile(obj.index);
+        emit(OpCode.GET_INDEX, obj.bracket);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexSet(IndexSet obj) {
+        compile(obj.array);
+        compile(obj.index);
+        compile(obj.value);
+        emit(OpCode.SET_INDEX, obj.bracket);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionExpr(FunctionExpr obj) {
+        function(obj.name, obj.name != null, obj.params, obj.stmts);
+        return null;
+    }
+
+    // helpers
+
+    private void compile(Statement stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expression expr) {
+        expr.accept(this);
+    }
+
+    private void function(Token name, boolean bindsSelf, List<Token> params, List<Statement> stmts) {
+        FunctionState function = new FunctionState(current);
+        current = function;
+        beginScope();
+        Scope scope = scopes.get(scopes.size() - 1);
+        if (bindsSelf) {
+            // the closure itself lives in slot 0 of its frame
+            mapSlot(scope, name.slot, 0);
+        }
+        for (Token param : params) {
+            declare(param);
+        }
+        for (Statement stmt : stmts) {
+            compile(stmt);
+        }
+        emit(OpCode.NIL, null);
+        emit(OpCode.RETURN, null);
+        // the frame goes away on return, which closes every upvalue, so no explicit close here
+        scopes.remove(scopes.size() - 1);
+        current = function.enclosing;
+
+        String displayName = name == null ? "<anonymous>" : name.lexeme;
+        FunctionProto proto = new FunctionProto(displayName, params.size(), function.frameSize, function.maxStack(),
+                function.upvalues.size(), function.chunk);
+        emit(OpCode.CLOSURE, name);
+        current.chunk.writeShort(constant(proto));
+        for (int[] upvalue : function.upvalues) {
+            current.chunk.write((byte) upvalue[0], null);
+            current.chunk.writeShort(upvalue[1]);
+        }
+    }
+
+    private void beginScope() {
+        scopes.add(new Scope(current, current.nextSlot));
+    }
+
+    private void endScope() {
+        Scope scope = scopes.remove(scopes.size() - 1);
+        if (scope.captured) {
+            emit(OpCode.CLOSE_UPVALUES, null);
+            current.chunk.writeShort(scope.base);
+        }
+        // sibling scopes reuse the slots of this one
+        current.nextSlot = scope.base;
+    }
+
+    private void declare(Token name) {
+        if (name.isGlobal() || scopes.isEmpty()) {
+            return;
+        }
+        Scope scope = scopes.get(scopes.size() - 1);
+        mapSlot(scope, name.slot, current.nextSlot++);
+        current.frameSize = Math.max(current.frameSize, current.nextSlot);
+    }
+
+    private void mapSlot(Scope scope, int resolverSlot, int frameSlot) {
+        if (resolverSlot >= scope.slots.length) {
+            scope.slots = Arrays.copyOf(scope.slots, Math.max(resolverSlot + 1, scope.slots.length * 2));
+        }
+        scope.slots[resolverSlot] = frameSlot;
+    }
+
+    private void defineVariable(Token name) {
+        if (name.isGlobal()) {
+            emit(OpCode.DEFINE_GLOBAL, name);
+            current.chunk.writeShort(constant(name));
+            return;
+        }
+        emit(OpCode.SET_LOCAL, name);
+        current.chunk.writeShort(scopeOf(name).slots[name.slot]);
+        emit(OpCode.POP, null);
+    }
+
+    private Scope scopeOf(Token name) {
+        return scopes.get(scopes.size() - 1 - name.hops);
+    }
+
+    private int resolveUpvalue(FunctionState function, Scope scope, int slot) {
+        if (function.enclosing == scope.function) {
+            scope.captured = true;
+            return addUpvalue(function, true, slot);
+        }
+        int index = resolveUpvalue(function.enclosing, scope, slot);
+        return addUpvalue(function, false, index);
+    }
+
+    private int addUpvalue(FunctionState function, boolean isLocal, int index) {
+        for (int i = 0; i < function.upvalues.size(); i++) {
+            int[] upvalue = function.upvalues.get(i);
+            if (upvalue[0] == (isLocal ? 1 : 0) && upvalue[1] == index) {
+                return i;
+            }
+        }
+        function.upvalues.add(new int[] { isLocal ? 1 : 0, index });
+        return function.upvalues.size() - 1;
+    }
+
+    private Loop beginLoop() {
+        Loop loop = new Loop(scopes.size());
+        current.loops.add(loop);
+        return loop;
+    }
+
+    private void endLoop(Loop loop) {
+        current.loops.remove(current.loops.size() - 1);
+        patchJumps(loop.breakJumps);
+    }
+
+    // break and continue leave the scopes opened inside the loop body
+    private void closeScopesAbove(int depth) {
+        if (scopes.size() > depth) {
+            Scope outermost = scopes.get(depth);
+            if (outermost.function == current && current.nextSlot > outermost.base) {
+                emit(OpCode.CLOSE_UPVALUES, null);
+                current.chunk.writeShort(outermost.base);
+            }
+        }
+    }
+
+    private int constant(Object value) {
+        int index = current.chunk.addConstant(value);
+        if (index > 0xffff) {
+            throw new RuntimeError(lastToken, "too many constants in one function");
+        }
+        return index;
+    }
+
+    private void emit(byte op, Token token) {
+        if (token != null) {
+            lastToken = token;
+        }
+        current.chunk.write(op, token);
+        current.depth += stackEffect(op);
+        current.maxDepth = Math.max(current.maxDepth, current.depth);
+    }
+
+    private static int stackEffect(byte op) {
+        switch (op) {
+            case OpCode.CONSTANT:
+            case OpCode.NIL:
+            case OpCode.TRUE:
+            case OpCode.FALSE:
+            case OpCode.GET_LOCAL:
+            case OpCode.GET_UPVALUE:
+            case OpCode.GET_GLOBAL:
+            case OpCode.CLOSURE:
+            case OpCode.ARRAY:
+                return 1;
+            case OpCode.POP:
+            case OpCode.DEFINE_GLOBAL:
+            case OpCode.ADD:
+            case OpCode.SUBTRACT:
+            case OpCode.MULTIPLY:
+            case OpCode.DIVIDE:
+            case OpCode.POWER:
+            case OpCode.EQUAL:
+            case OpCode.NOT_EQUAL:
+            case OpCode.GREATER:
+            case OpCode.GREATER_EQUAL:
+            case OpCode.LESS:
+            case OpCode.LESS_EQUAL:
+            case OpCode.PRINT:
+            case OpCode.RETURN:
+            case OpCode.GET_INDEX:
+                return -1;
+            case OpCode.SET_INDEX:
+                return -2;
+            default:
+                return 0;
+        }
+    }
+
+    private int emitJump(byte op) {
+        emit(op, null);
+        current.chunk.writeShort(0xffff);
+        return current.chunk.count - 2;
+    }
+
+    private void patchJump(int offset) {
+        int jump = current.chunk.count - offset - 2;
+        if (jump > 0xffff) {
+            throw new RuntimeError(lastToken, "too much code to jump over");
+        }
+        current.chunk.patchShort(offset, jump);
+    }
+
+    private void patchJumps(List<Integer> offsets) {
+        for (int offset : offsets) {
+            patchJump(offset);
+        }
+    }
+
+    private void emitLoop(int loopStart) {
+        emit(OpCode.LOOP, null);
+        int offset = current.chunk.count - loopStart + 2;
+        if (offset > 0xffff) {
+            throw new RuntimeError(lastToken, "loop body too large");
+        }
+        current.chunk.writeShort(offset);
+    }
+}
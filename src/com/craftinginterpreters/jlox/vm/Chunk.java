@@ -0,0 +1,63 @@
+package com.craftinginterpreters.jlox.vm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.craftinginterpreters.jlox.syntax.Token;
+
+/**
+ * Bytecode of one function together with its constant pool. For every
+ * instruction that can fail at runtime the token to report is kept in a
+ * side table indexed by the instruction's offset, so the instruction
+ * stream itself stays compact.
+ */
+public class Chunk {
+    byte[] code;
+    int count;
+    Token[] tokens;
+    final List<Object> constants;
+    // numbers and strings are shared, tokens and functions always get their own entry
+    private final Map<Object, Integer> literals;
+
+    Chunk() {
+        this.code = new byte[64];
+        this.tokens = new Token[64];
+        this.count = 0;
+        this.constants = new ArrayList<>();
+        this.literals = new HashMap<>();
+    }
+
+    void write(byte value, Token token) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            tokens = Arrays.copyOf(tokens, count * 2);
+        }
+        tokens[count] = token;
+        code[count++] = value;
+    }
+
+    void writeShort(int value) {
+        write((byte) ((value >> 8) & 0xff), null);
+        write((byte) (value & 0xff), null);
+    }
+
+    void patchShort(int offset, int value) {
+        code[offset] = (byte) ((value >> 8) & 0xff);
+        code[offset + 1] = (byte) (value & 0xff);
+    }
+
+    int addConstant(Object value) {
+        boolean literal = value instanceof Double || value instanceof String;
+        if (literal && literals.containsKey(value)) {
+            return literals.get(value);
+        }
+        constants.add(value);
+        if (literal) {
+            literals.put(value, constants.size() - 1);
+        }
+        return constants.size() - 1;
+    }
+}
@@ -0,0 +1,36 @@
+package com.craftinginterpreters.jlox.vm;
+
+import java.util.Arrays;
+
+import com.craftinginterpreters.jlox.syntax.Token;
+
+/**
+ * Compiled form of a function declaration or expression. Slot 0 of every
+ * frame holds the running closure, parameters follow from slot 1.
+ */
+public class FunctionProto {
+    final String name;
+    final int arity;
+    final int frameSize;
+    final int maxStack;
+    final int upvalueCount;
+    final byte[] code;
+    final Token[] tokens;
+    final Object[] constants;
+
+    FunctionProto(String name, int arity, int frameSize, int maxStack, int upvalueCount, Chunk chunk) {
+        this.name = name;
+        this.arity = arity;
+        this.frameSize = frameSize;
+        this.maxStack = maxStack;
+        this.upvalueCount = upvalueCount;
+        this.code = Arrays.copyOf(chunk.code, chunk.count);
+        this.tokens = Arrays.copyOf(chunk.tokens, chunk.count);
+        this.constants = chunk.constants.toArray();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<fn %s>", name);
+    }
+}
@@ -0,0 +1,59 @@
+package com.craftinginterpreters.jlox.vm;
+
+/**
+ * Instruction set of the VM. Operands follow the opcode in the code array:
+ * u8 operands take one byte, u16 operands two bytes (big endian).
+ */
+public class OpCode {
+    public static final byte CONSTANT = 0; // u16 constant index
+    public static final byte NIL = 1;
+    public static final byte TRUE = 2;
+    public static final byte FALSE = 3;
+    public static final byte POP = 4;
+
+    public static final byte GET_LOCAL = 5; // u16 local slot
+    public static final byte SET_LOCAL = 6; // u16 local slot
+    public static final byte GET_UPVALUE = 7; // u16 upvalue index
+    public static final byte SET_UPVALUE = 8; // u16 upvalue index
+    public static final byte GET_GLOBAL = 9; // u16 constant index of the name token
+    public static final byte SET_GLOBAL = 10; // u16 constant index of the name token
+    public static final byte DEFINE_GLOBAL = 11; // u16 constant index of the name token
+
+    public static final byte ADD = 12;
+    public static final byte SUBTRACT = 13;
+    public static final byte MULTIPLY = 14;
+    public static final byte DIVIDE = 15;
+    public static final byte POWER = 16;
+    public static final byte NEGATE = 17;
+    public static final byte NOT = 18;
+    public static final byte EQUAL = 19;
+    public static final byte NOT_EQUAL = 20;
+    public static final byte GREATER = 21;
+    public static final byte GREATER_EQUAL = 22;
+    public static final byte LESS = 23;
+    public static final byte LESS_EQUAL = 24;
+
+    public static final byte PRINT = 25;
+    public static final byte JUMP = 26; // u16 forward offset
+    public static final byte JUMP_IF_FALSE = 27; // u16 forward offset, leaves the condition on the stack
+    public static final byte LOOP = 28; // u16 backward offset
+
+    public static final byte CALL = 29; // u8 argument count
+    public static final byte CLOSURE = 30; // u16 constant index, then (u8 isLocal, u16 index) per upvalue
+    public static final byte CLOSE_UPVALUES = 31; // u16 first local slot to close
+    public static final byte RETURN = 32;
+
+    public static final byte ARRAY = 33; // u16 element count
+    public static final byte GET_INDEX = 34;
+    public static final byte SET_INDEX = 35;
+
+    static final String[] NAMES = {
+        "CONSTANT", "NIL", "TRUE", "FALSE", "POP",
+        "GET_LOCAL", "SET_LOCAL", "GET_UPVALUE", "SET_UPVALUE", "GET_GLOBAL", "SET_GLOBAL", "DEFINE_GLOBAL",
+        "ADD", "SUBTRACT", "MULTIPLY", "DIVIDE", "POWER", "NEGATE", "NOT",
+        "EQUAL", "NOT_EQUAL", "GREATER", "GREATER_EQUAL", "LESS", "LESS_EQUAL",
+        "PRINT", "JUMP", "JUMP_IF_FALSE", "LOOP",
+        "CALL", "CLOSURE", "CLOSE_UPVALUES", "RETURN",
+        "ARRAY", "GET_INDEX", "SET_INDEX"
+    };
+}
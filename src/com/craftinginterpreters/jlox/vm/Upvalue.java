@@ -0,0 +1,17 @@
+package com.craftinginterpreters.jlox.vm;
+
+/**
+ * A variable captured by a closure. While the declaring frame is live the
+ * value stays in the VM stack at {@code slot}; once the scope ends the value
+ * is moved into {@code closed} and {@code slot} becomes -1.
+ */
+final class Upvalue {
+    int slot;
+    Object closed;
+    Upvalue next;
+
+    Upvalue(int slot, Upvalue next) {
+        this.slot = slot;
+        this.next = next;
+    }
+}
@@ -0,0 +1,466 @@
+package com.craftinginterpreters.jlox.vm;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.craftinginterpreters.jlox.interpreter.Engine;
+import com.craftinginterpreters.jlox.interpreter.LoxArray;
+import com.craftinginterpreters.jlox.interpreter.LoxCallable;
+import com.craftinginterpreters.jlox.interpreter.LoxGlobalEnvironment;
+import com.craftinginterpreters.jlox.interpreter.Native;
+import com.craftinginterpreters.jlox.interpreter.NativeError;
+import com.craftinginterpreters.jlox.interpreter.RuntimeError;
+import com.craftinginterpreters.jlox.interpreter.Rope;
+import com.craftinginterpreters.jlox.interpreter.Utils;
+import com.craftinginterpreters.jlox.syntax.Statement;
+import com.craftinginterpreters.jlox.syntax.Token;
+import com.craftinginterpreters.jlox.tools.ErrorHandler;
+
+/**
+ * Stack based virtual machine for the bytecode produced by
+ * {@link BytecodeCompiler}. Lox calls push a {@link CallFrame} instead of
+ * recursing on the Java stack.
+ */
+public class VM implements Engine {
+    private static final int FRAMES_MAX = 1 << 16;
+
+    private static final class CallFrame {
+        VmClosure closure;
+        int ip;
+        int base;
+    }
+
+    private final LoxGlobalEnvironment globals = new LoxGlobalEnvironment();
+    private Object[] stack = new Object[256];
+    private int sp;
+    private CallFrame[] frames = new CallFrame[16];
+    private int frameCount;
+    // open upvalues sorted by slot, highest first
+    private Upvalue openUpvalues;
+
+    @Override
+    public void interpret(List<Statement> statements) {
+        FunctionProto script = new BytecodeCompiler().compile(statements);
+        VmClosure closure = new VmClosure(this, script);
+        try {
+            stack[sp++] = closure;
+            pushFrame(closure, 0, null);
+            run(0);
+        } catch (RuntimeError error) {
+            ErrorHandler.runtimeError(error);
+        } finally {
+            resetStack();
+        }
+    }
+
+    Object callFromHost(VmClosure closure, List<Object> arguments) {
+        int depth = frameCount;
+        ensureStack(arguments.size() + 1);
+        stack[sp++] = closure;
+        for (Object argument : arguments) {
+            stack[sp++] = argument;
+        }
+        pushFrame(closure, arguments.size(), null);
+        return run(depth);
+    }
+
+    private Object run(int exitDepth) {
+        CallFrame frame = frames[frameCount - 1];
+        byte[] code = frame.closure.proto.code;
+        Object[] constants = frame.closure.proto.constants;
+        Object[] stack = this.stack;
+        int ip = frame.ip;
+        int base = frame.base;
+        int sp = this.sp;
+
+        for (;;) {
+            byte op = code[ip++];
+            switch (op) {
+                case OpCode.CONSTANT:
+                    stack[sp++] = constants[readShort(code, ip)];
+                    ip += 2;
+                    break;
+                case OpCode.NIL:
+                    stack[sp++] = null;
+                    break;
+                case OpCode.TRUE:
+                    stack[sp++] = Boolean.TRUE;
+                    break;
+                case OpCode.FALSE:
+                    stack[sp++] = Boolean.FALSE;
+                    break;
+                case OpCode.POP:
+                    stack[--sp] = null;
+                    break;
+                case OpCode.GET_LOCAL:
+                    stack[sp++] = stack[base + readShort(code, ip)];
+                    ip += 2;
+                    break;
+                case OpCode.SET_LOCAL:
+                    stack[base + readShort(code, ip)] = stack[sp - 1];
+                    ip += 2;
+                    break;
+                case OpCode.GET_UPVALUE: {
+                    Upvalue upvalue = frame.closure.upvalues[readShort(code, ip)];
+                    stack[sp++] = upvalue.slot >= 0 ? stack[upvalue.slot] : upvalue.closed;
+                    ip += 2;
+                    break;
+                }
+                case OpCode.SET_UPVALUE: {
+                    Upvalue upvalue = frame.closure.upvalues[readShort(code, ip)];
+                    if (upvalue.slot >= 0) {
+                        stack[upvalue.slot] = stack[sp - 1];
+                    } else {
+                        upvalue.closed = stack[sp - 1];
+                    }
+                    ip += 2;
+                    break;
+                }
+                case OpCode.GET_GLOBAL:
+                    stack[sp++] = globals.get((Token) constants[readShort(code, ip)]);
+                    ip += 2;
+                    break;
+                case OpCode.SET_GLOBAL:
+                    globals.assign((Token) constants[readShort(code, ip)], stack[sp - 1]);
+                    ip += 2;
+                    break;
+                case OpCode.DEFINE_GLOBAL:
+                    globals.define((Token) constants[readShort(code, ip)], stack[--sp]);
+                    stack[sp] = null;
+                    ip += 2;
+                    break;
+                case OpCode.ADD: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    if (left instanceof Double && right instanceof Double) {
+                        stack[sp - 1] = (double) left + (double) right;
+                    } else if (Utils.isString(left) || Utils.isString(right)) {
+                        stack[sp - 1] = Rope.concat(left, right);
+                    } else {
+                        throw error(frame, ip - 1, "Invalid operand types");
+                    }
+                    break;
+                }
+                case OpCode.SUBTRACT: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    if (!(left instanceof Double && right instanceof Double)) {
+                        throw error(frame, ip - 1, "Invalid operand types");
+                    }
+                    stack[sp - 1] = (double) left - (double) right;
+                    break;
+                }
+                case OpCode.MULTIPLY: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    if (!(left instanceof Double && right instanceof Double)) {
+                        throw error(frame, ip - 1, "Invalid operand types");
+                    }
+                    stack[sp - 1] = (double) left * (double) right;
+                    break;
+                }
+                case OpCode.DIVIDE: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    if (!(left instanceof Double && right instanceof Double)) {
+                        throw error(frame, ip - 1, "Invalid operand types");
+                    }
+                    if ((double) right == 0.0) {
+                        throw error(frame, ip - 1, "Divison by zero is not allowed");
+                    }
+                    stack[sp - 1] = (double) left / (double) right;
+                    break;
+                }
+                case OpCode.POWER: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    if (!(left instanceof Double && right instanceof Double)) {
+                        throw error(frame, ip - 1, "Invalid operand types");
+                    }
+                    stack[sp - 1] = Math.pow((double) left, (double) right);
+                    break;
+                }
+                case OpCode.NEGATE: {
+                    Object value = stack[sp - 1];
+                    if (!(value instanceof Double)) {
+                        throw error(frame, ip - 1, "Invalid operand types");
+                    }
+                    stack[sp - 1] = -(double) value;
+                    break;
+                }
+                case OpCode.NOT:
+                    stack[sp - 1] = !Utils.isTruthy(stack[sp - 1]);
+                    break;
+                case OpCode.EQUAL: {
+                    Object right = stack[--sp];
+                    stack[sp - 1] = Utils.isEqual(stack[sp - 1], right);
+                    break;
+                }
+                case OpCode.NOT_EQUAL: {
+                    Object right = stack[--sp];
+                    stack[sp - 1] = !Utils.isEqual(stack[sp - 1], right);
+                    break;
+                }
+                case OpCode.GREATER:
+                case OpCode.GREATER_EQUAL:
+                case OpCode.LESS:
+                case OpCode.LESS_EQUAL: {
+                    Object right = stack[--sp];
+                    stack[sp - 1] = compare(op, stack[sp - 1], right);
+                    break;
+                }
+                case OpCode.PRINT:
+                    System.out.println(Utils.stringify(stack[--sp]));
+                    stack[sp] = null;
+                    break;
+                case OpCode.JUMP:
+                    ip += readShort(code, ip) + 2;
+                    break;
+                case OpCode.JUMP_IF_FALSE:
+                    if (Utils.isTruthy(stack[sp - 1])) {
+                        ip += 2;
+                    } else {
+                        ip += readShort(code, ip) + 2;
+                    }
+                    break;
+                case OpCode.LOOP:
+                    ip -= readShort(code, ip) - 2;
+                    break;
+                case OpCode.CALL: {
+                    int argCount = code[ip++] & 0xff;
+                    Object callee = stack[sp - argCount - 1];
+                    frame.ip = ip;
+                    this.sp = sp;
+                    if (callee instanceof VmClosure) {
+                        VmClosure closure = (VmClosure) callee;
+                        checkArity(frame, ip - 2, closure.proto.arity, argCount);
+                        frame = pushFrame(closure, argCount, frame);
+                        code = closure.proto.code;
+                        constants = closure.proto.constants;
+                        stack = this.stack;
+                        ip = frame.ip;
+                        base = frame.base;
+                        sp = this.sp;
+                        break;
+                    }
+                    if (callee instanceof Native) {
+                        // numbers straight from the stack, without an argument list
+                        Native function = (Native) callee;
+                        checkArity(frame, ip - 2, function.arity(), argCount);
+                        for (int i = sp - argCount; i < sp; i++) {
+                            if (!(stack[i] instanceof Double)) {
+                                throw error(frame, ip - 2, String.format("%s expects numbers", function.name));
+                            }
+                        }
+                        double result;
+                        if (argCount == 0) {
+                            result = function.apply0();
+                        } else if (argCount == 1) {
+                            result = function.apply1((double) stack[sp - 1]);
+                        } else {
+                            result = function.apply2((double) stack[sp - 2], (double) stack[sp - 1]);
+                        }
+                        Arrays.fill(stack, sp - argCount, sp, null);
+                        sp -= argCount;
+                        stack[sp - 1] = result;
+                        break;
+                    }
+                    if (!(callee instanceof LoxCallable)) {
+                        throw error(frame, ip - 2, "can only call functions and classes");
+                    }
+                    LoxCallable function = (LoxCallable) callee;
+                    checkArity(frame, ip - 2, function.arity(), argCount);
+                    Object result;
+                    try {
+                        result = function.call(Arrays.copyOfRange(stack, sp - argCount, sp));
+                    } catch (NativeError e) {
+                        throw error(frame, ip - 2, e.getMessage());
+                    }
+                    stack = this.stack;
+                    Arrays.fill(stack, sp - argCount, sp, null);
+                    sp -= argCount;
+                    stack[sp - 1] = result;
+                    break;
+                }
+                case OpCode.ARRAY: {
+                    int count = readShort(code, ip);
+                    ip += 2;
+                    Object[] elements = Arrays.copyOfRange(stack, sp - count, sp);
+                    Arrays.fill(stack, sp - count, sp, null);
+                    sp -= count;
+                    stack[sp++] = LoxArray.of(elements);
+                    break;
+                }
+                case OpCode.GET_INDEX: {
+                    Token bracket = frame.closure.proto.tokens[ip - 1];
+                    Object index = stack[--sp];
+                    LoxArray array = LoxArray.cast(stack[sp - 1], bracket);
+                    stack[sp - 1] = array.get(array.index(index, bracket));
+                    break;
+                }
+                case OpCode.SET_INDEX: {
+                    Token bracket = frame.closure.proto.tokens[ip - 1];
+                    Object value = stack[--sp];
+                    Object index = stack[--sp];
+                    LoxArray array = LoxArray.cast(stack[sp - 1], bracket);
+                    array.set(array.index(index, bracket), value);
+                    stack[sp - 1] = value;
+                    break;
+                }
+                case OpCode.CLOSURE: {
+                    FunctionProto proto = (FunctionProto) constants[readShort(code, ip)];
+                    ip += 2;
+                    VmClosure closure = new VmClosure(this, proto);
+                    for (int i = 0; i < proto.upvalueCount; i++) {
+                        boolean isLocal = code[ip] == 1;
+                        int index = readShort(code, ip + 1);
+                        ip += 3;
+                        closure.upvalues[i] = isLocal ? captureUpvalue(base + index) : frame.closure.upvalues[index];
+                    }
+                    stack[sp++] = closure;
+                    break;
+                }
+                case OpCode.CLOSE_UPVALUES:
+                    closeUpvalues(base + readShort(code, ip));
+                    ip += 2;
+                    break;
+                case OpCode.RETURN: {
+                    Object result = stack[--sp];
+                    closeUpvalues(base);
+                    Arrays.fill(stack, base, sp, null);
+                    // the callee slot below the frame takes the result
+                    sp = base;
+                    frameCount--;
+                    if (frameCount == exitDepth) {
+                        this.sp = sp;
+                        return result;
+                    }
+                    stack[sp++] = result;
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.proto.code;
+                    constants = frame.closure.proto.constants;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+                default:
+                    throw error(frame, ip - 1, "unknown instruction " + op);
+            }
+        }
+    }
+
+    // helpers
+
+    /**
+     * Enters {@code closure} whose arguments are the top {@code argCount}
+     * values, with the closure itself right below them.
+     */
+    private CallFrame pushFrame(VmClosure closure, int argCount, CallFrame caller) {
+        if (frameCount == FRAMES_MAX) {
+            throw error(caller, caller.ip - 2, "stack overflow");
+        }
+        if (frameCount == frames.length) {
+            frames = Arrays.copyOf(frames, frameCount * 2);
+        }
+        CallFrame frame = frames[frameCount];
+        if (frame == null) {
+            frame = new CallFrame();
+            frames[frameCount] = frame;
+        }
+        frameCount++;
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = sp - argCount - 1;
+        ensureStack(closure.proto.maxStack);
+        // locals past the parameters start out as nil
+        sp = frame.base + closure.proto.frameSize;
+        return frame;
+    }
+
+    private void checkArity(CallFrame frame, int offset, int arity, int argCount) {
+        if (arity != argCount) {
+            throw error(frame, offset, String.format("expected %d arguments but got %d", arity, argCount));
+        }
+    }
+
+    private static Object compare(byte op, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) {
+            double l = (double) left;
+            double r = (double) right;
+            switch (op) {
+                case OpCode.GREATER:
+                    return l > r;
+                case OpCode.GREATER_EQUAL:
+                    return l >= r;
+                case OpCode.LESS:
+                    return l < r;
+                default:
+                    return l <= r;
+            }
+        }
+        if (Utils.isString(left) && Utils.isString(right)) {
+            double diff = Utils.compareStrings(left.toString(), right.toString());
+            switch (op) {
+                case OpCode.GREATER:
+                    return diff > 0;
+                case OpCode.GREATER_EQUAL:
+                    return diff >= 0;
+                case OpCode.LESS:
+                    return diff < 0;
+                default:
+                    return diff <= 0;
+            }
+        }
+        return false;
+    }
+
+    private Upvalue captureUpvalue(int slot) {
+        Upvalue previous = null;
+        Upvalue upvalue = openUpvalues;
+        while (upvalue != null && upvalue.slot > slot) {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+        if (upvalue != null && upvalue.slot == slot) {
+            return upvalue;
+        }
+        Upvalue created = new Upvalue(slot, upvalue);
+        if (previous == null) {
+            openUpvalues = created;
+        } else {
+            previous.next = created;
+        }
+        return created;
+    }
+
+    private void closeUpvalues(int fromSlot) {
+        while (openUpvalues != null && openUpvalues.slot >= fromSlot) {
+            Upvalue upvalue = openUpvalues;
+            upvalue.closed = stack[upvalue.slot];
+            upvalue.slot = -1;
+            openUpvalues = upvalue.next;
+            upvalue.next = null;
+        }
+    }
+
+    private void ensureStack(int needed) {
+        if (sp + needed > stack.length) {
+            stack = Arrays.copyOf(stack, Math.max(stack.length * 2, sp + needed));
+        }
+    }
+
+    private void resetStack() {
+        Arrays.fill(stack, null);
+        sp = 0;
+        frameCount = 0;
+        openUpvalues = null;
+    }
+
+    private RuntimeError error(CallFrame frame, int offset, String message) {
+        return new RuntimeError(frame.closure.proto.tokens[offset], message);
+    }
+
+    private static int readShort(byte[] code, int offset) {
+        return ((code[offset] & 0xff) << 8) | (code[offset + 1] & 0xff);
+    }
+}
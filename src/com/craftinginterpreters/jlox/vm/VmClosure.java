@@ -0,0 +1,32 @@
+package com.craftinginterpreters.jlox.vm;
+
+import java.util.List;
+
+import com.craftinginterpreters.jlox.interpreter.LoxCallable;
+
+public class VmClosure implements LoxCallable {
+    final FunctionProto proto;
+    final Upvalue[] upvalues;
+    private final VM vm;
+
+    VmClosure(VM vm, FunctionProto proto) {
+        this.vm = vm;
+        this.proto = proto;
+        this.upvalues = new Upvalue[proto.upvalueCount];
+    }
+
+    @Override
+    public Object call(List<Object> arguments) {
+        return vm.callFromHost(this, arguments);
+    }
+
+    @Override
+    public int arity() {
+        return proto.arity;
+    }
+
+    @Override
+    public String toString() {
+        return proto.toString();
+    }
+}